@@ -0,0 +1,67 @@
+package purple;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import purple.syntax.OperatorTable;
+import purple.syntax.Parser;
+import purple.syntax.SyntaxTree;
+import purple.syntax.model.SyntaxNode;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reducing and parsing a long chain of infix calls by rewriting
+ * them as postfix calls first, against parsing them directly with the
+ * precedence (Pratt) expression parser, into the model or a flat tree.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpressionParsingBenchmark {
+  @Param({ "10", "100", "1000" })
+  public int terms;
+
+  private String expression;
+  private OperatorTable operators;
+
+  @Setup
+  public void setUp() {
+    StringBuilder expression = new StringBuilder("x0");
+    for (int i = 1; i < terms; i++) {
+      expression.append(i % 3 == 0 ? " compare_to " : " + ").append('x').append(i);
+    }
+    this.expression = expression.toString();
+    this.operators = OperatorTable.standard();
+  }
+
+  @Benchmark
+  public SyntaxNode infixRewrite() {
+    return new Parser(new Tokenizer(expression).tokenize()).parse();
+  }
+
+  @Benchmark
+  public SyntaxNode pratt() {
+    return new Parser(new Tokenizer(expression).tokenizeInfix(), operators).parse();
+  }
+
+  @Benchmark
+  public SyntaxTree prattTree() {
+    SyntaxTree tree = new SyntaxTree();
+    new Parser(new Tokenizer(expression).tokenizeInfix(), operators).parse(tree);
+    return tree;
+  }
+}
@@ -0,0 +1,124 @@
+package purple;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares keyword/operator resolution through the perfect hash in
+ * {@link Keywords} against the old HashMap-then-equals path.
+ *
+ * The workload is every token of a typical script, resolved as a region
+ * of the source (the way the Tokenizer does it).
+ *
+ * The benchmarks in bench/ need JMH, so are kept out of the IDE module;
+ * compile them against the module's classes and the JMH jars, and run
+ * them through JMH's runner.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeywordResolutionBenchmark {
+  private static final String SCRIPT =
+      "module example.one\nrequire examples\n"
+      + "class Person: {\n String name \n Int age \n}\n"
+      + "def +(String name, Int age): { 58 + 2.flip }\n"
+      + "def reverse(list): list.head -> reverse(list.tail) => x\n"
+      + "def walk_dog(dog) {\n dog.enleash\n dog.walk\n}\n"
+      + "puts (1 + (33 - 2)) compare_to other_car\n";
+
+  private String source;
+  private int[] starts;
+  private int[] lengths;
+
+  @Setup
+  public void setUp() {
+    source = SCRIPT;
+    TokenBuffer tokens = new Tokenizer(source).lex();
+
+    int count = 0;
+    for (int i = 0; i < tokens.size(); i++) {
+      if (isWord(tokens, i)) {
+        count++;
+      }
+    }
+
+    starts = new int[count];
+    lengths = new int[count];
+    for (int i = 0, j = 0; i < tokens.size(); i++) {
+      if (isWord(tokens, i)) {
+        starts[j] = tokens.start(i);
+        lengths[j] = tokens.length(i);
+        j++;
+      }
+    }
+  }
+
+  private static boolean isWord(TokenBuffer tokens, int i) {
+    TokenKind kind = tokens.kind(i);
+    return kind != TokenKind.INTEGER && kind != TokenKind.EOL && null == TokenBuffer.spellingOf(kind);
+  }
+
+  @Benchmark
+  public void perfectHash(Blackhole blackhole) {
+    for (int i = 0; i < starts.length; i++) {
+      blackhole.consume(TokenKind.resolve(source, starts[i], lengths[i]));
+    }
+  }
+
+  @Benchmark
+  public void hashMapAndEquals(Blackhole blackhole) {
+    for (int i = 0; i < starts.length; i++) {
+      blackhole.consume(LegacyResolver.resolve(source.substring(starts[i], starts[i] + lengths[i])));
+    }
+  }
+
+  /**
+   * The resolution path as it was before keywords were perfect hashed.
+   */
+  static class LegacyResolver {
+    private static final Map<String, TokenKind> keywords = new HashMap<String, TokenKind>();
+
+    static {
+      keywords.put("module", TokenKind.MODULE);
+      keywords.put("def", TokenKind.DEF);
+      keywords.put("require", TokenKind.REQUIRE);
+      keywords.put("class", TokenKind.CLASS);
+    }
+
+    static TokenKind resolve(String st) {
+      TokenKind tokenKind = keywords.get(st);
+      if (null != tokenKind) {
+        return tokenKind;
+      }
+
+      if ("->".equals(st)) {
+        return TokenKind.THIN_ARROW;
+      } else if ("=>".equals(st)) {
+        return TokenKind.FAT_ARROW;
+      }
+
+      if (Character.isUpperCase(st.charAt(0))) {
+        return TokenKind.TYPE_IDENT;
+      }
+      return TokenKind.IDENT;
+    }
+  }
+}
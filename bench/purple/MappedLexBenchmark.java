@@ -0,0 +1,100 @@
+package purple;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lexing throughput of a large mapped script, in MB/s (see the
+ * megabytes counter), with and without the word-at-a-time
+ * {@link DelimiterScanner}.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MappedLexBenchmark {
+  private static final String SCRIPT =
+      "module example.one\nrequire examples\n"
+      + "class Person: {\n  String name \n  Int age \n}\n"
+      + "def +(String name, Int age): { 58 + 2.flip }\n"
+      + "def reverse(list): list.head -> reverse(list.tail) => x\n"
+      + "def walk_the_dog(dog_walker, favourite_dog) {\n"
+      + "    favourite_dog.enleash_with(dog_walker.leash)\n"
+      + "    dog_walker.walk_around_the_neighbourhood(favourite_dog)\n"
+      + "}\n"
+      + "puts (1 + (33 - 2)) compare_to other_car\n";
+
+  private static final int SIZE = 16 << 20;
+
+  private File file;
+  private MappedSource source;
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class Bytes {
+    public double megabytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      megabytes = 0;
+    }
+  }
+
+  @Setup
+  public void setUp() throws IOException {
+    file = File.createTempFile("purple-bench", ".p");
+    byte[] script = SCRIPT.getBytes("UTF-8");
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      for (int written = 0; written < SIZE; written += script.length) {
+        out.write(script);
+      }
+    } finally {
+      out.close();
+    }
+    source = MappedSource.open(file);
+  }
+
+  @TearDown
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Benchmark
+  public long wordScan(Bytes bytes) throws IOException {
+    return lex(true, bytes);
+  }
+
+  @Benchmark
+  public long scalar(Bytes bytes) throws IOException {
+    return lex(false, bytes);
+  }
+
+  private long lex(boolean wordScan, Bytes bytes) throws IOException {
+    OffHeapTokenBuffer buffer = new MappedTokenizer(source, wordScan).lex();
+    long tokens = buffer.size();
+    buffer.close();
+    bytes.megabytes += source.size() / (1024.0 * 1024.0);
+    return tokens;
+  }
+}
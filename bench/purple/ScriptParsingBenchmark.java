@@ -0,0 +1,71 @@
+package purple;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import purple.syntax.OperatorTable;
+import purple.syntax.Parser;
+import purple.syntax.model.Script;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a script of several thousand definitions a top-level unit at a
+ * time, on pools of increasing size. Tokenizing is done up front, so this
+ * is just the parse.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScriptParsingBenchmark {
+  private static final String UNITS =
+      "class Person: {\n  String name \n  Int age \n}\n"
+      + "def +(String name, Int age): { 58 + 2.flip }\n"
+      + "def walk(dog, walker): {\n"
+      + "    dog.enleash_with(walker.leash)\n"
+      + "    walker.walk_around(dog, (1 + (33 - 2)) compare_to other_dog)\n"
+      + "}\n"
+      + "puts(1 + (33 - 2))\n";
+
+  @Param({ "1", "2", "4", "8" })
+  public int threads;
+
+  private List<Token> tokens;
+  private ForkJoinPool pool;
+
+  @Setup
+  public void setUp() {
+    StringBuilder script = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      script.append(UNITS);
+    }
+    tokens = new Tokenizer(script.toString()).tokenizeInfix();
+    pool = new ForkJoinPool(threads);
+  }
+
+  @TearDown
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  @Benchmark
+  public Script parseScript() {
+    return new Parser(tokens, OperatorTable.standard()).parseScript("bench", pool);
+  }
+}
@@ -0,0 +1,41 @@
+package purple;
+
+/**
+ * Matches up braces, parens and brackets as a stream of tokens goes by,
+ * keeping a stack of open indices per kind of balancer. Each kind is
+ * matched on its own, so a stray ')' never closes a '{'.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+final class Balancer {
+  private static final int KINDS = TokenKind.values().length;
+
+  private final int[][] open = new int[KINDS][];
+  private final int[] depth = new int[KINDS];
+
+  /**
+   * Feeds the next token in the stream, at the given index. Returns the
+   * index of the token it balances, if it closes one, or -1 otherwise.
+   */
+  int accept(TokenKind kind, int index) {
+    if (null != TokenBuffer.closerOf(kind)) {
+      int k = kind.ordinal();
+      if (null == open[k]) {
+        open[k] = new int[8];
+      } else if (depth[k] == open[k].length) {
+        int[] grown = new int[depth[k] * 2];
+        System.arraycopy(open[k], 0, grown, 0, depth[k]);
+        open[k] = grown;
+      }
+      open[k][depth[k]++] = index;
+      return -1;
+    }
+
+    TokenKind opener = TokenBuffer.openerOf(kind);
+    if (null != opener && depth[opener.ordinal()] > 0) {
+      int k = opener.ordinal();
+      return open[k][--depth[k]];
+    }
+    return -1;
+  }
+}
@@ -2,7 +2,6 @@ package purple;
 
 import purple.syntax.PurpleGrammarException;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -14,20 +13,217 @@ import java.util.List;
  * the program model.
  */
 public class BetterReducer {
-  private List<Token> tokens;
+  private final TokenBuffer tokens;
+  private final boolean rewriteInfixCalls;
 
   public BetterReducer(List<Token> tokens) {
+    this(TokenBuffer.of(tokens));
+  }
+
+  public BetterReducer(TokenBuffer tokens) {
+    this(tokens, true);
+  }
+
+  /**
+   * Infix calls may be left as they are written (x + y rather than
+   * x.+(y)) for a parser that can handle them directly.
+   *
+   * @see purple.syntax.ExpressionParser
+   */
+  public BetterReducer(TokenBuffer tokens, boolean rewriteInfixCalls) {
     this.tokens = tokens;
+    this.rewriteInfixCalls = rewriteInfixCalls;
   }
 
   public List<Token> reduceTokenStream() {
-    tokens = normalizeDecimals();
-    tokens = normalizeThunks();
-    tokens = reduceNewlines();
-    tokens = normalizeOnelineFuncsAndGrouping();
-    tokens = rewriteInfixCallsAsPostfix();
+    return reduce().toList();
+  }
+
+  /**
+   * Runs all the reductions in a single traversal of the token stream.
+   * Each reduction is a stage that pulls tokens from the one before it
+   * and only ever looks a couple of tokens ahead, so the whole thing
+   * streams through a handful of small windows into one output buffer.
+   */
+  public TokenBuffer reduce() {
+    Stage stage = reduce(new Source(tokens), rewriteInfixCalls);
+
+    TokenBuffer out = tokens.derive(tokens.size() + tokens.size() / 2);
+    while (stage.has(0)) {
+      out.add(stage.kind(0), stage.start(0), stage.length(0));
+      stage.take(1);
+    }
+
+    // Match up parens and braces for the parser, while we're here.
+    out.balance();
+    return out;
+  }
+
+  /**
+   * Chains the reductions onto a stage producing raw tokens. Nothing is
+   * reduced until tokens are pulled from the returned stage.
+   */
+  static Stage reduce(Stage stage, boolean rewriteInfixCalls) {
+    stage = new NormalizeDecimals(stage);
+    stage = new NormalizeThunks(stage);
+    stage = new ReduceNewlines(stage);
+    stage = new NormalizeOnelineFuncsAndGrouping(stage);
+    return rewriteInfixCalls ? new RewriteInfixCallsAsPostfix(stage) : stage;
+  }
+
+  /**
+   * One step of the reduction. A stage produces tokens on demand into a
+   * small ring buffer, which the next stage peeks into and takes from.
+   * Tokens are carried as (kind, start, length) triples over the text of
+   * the buffer being reduced, see {@link TokenBuffer}.
+   */
+  abstract static class Stage {
+    private static final int WINDOW = 16;
+
+    final TokenBuffer text;
+    private TokenKind[] kinds = new TokenKind[WINDOW];
+    private int[] starts = new int[WINDOW];
+    private int[] lengths = new int[WINDOW];
+    private int head;
+    private int count;
+
+    Stage(TokenBuffer text) {
+      this.text = text;
+    }
+
+    /**
+     * Produces some more tokens (or at least consumes some input). Returns
+     * false once there is nothing left to do.
+     */
+    abstract boolean step();
+
+    /**
+     * Steps until there is a batch of tokens, up to about half a window.
+     * Returns false once there is nothing left to do.
+     */
+    private boolean produce() {
+      if (!step()) {
+        return false;
+      }
+      while (count < WINDOW / 2 && step()) {
+        // keep going, a batch at a time
+      }
+      return true;
+    }
+
+    final boolean has(int distance) {
+      while (count <= distance) {
+        if (!produce()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * The kind of the token the given distance ahead, or null if that is
+     * past the end of the stream.
+     */
+    final TokenKind kind(int distance) {
+      return has(distance) ? kinds[(head + distance) & (kinds.length - 1)] : null;
+    }
+
+    final boolean is(int distance, TokenKind kind) {
+      return kind(distance) == kind;
+    }
+
+    final int start(int distance) {
+      return starts[(head + distance) & (kinds.length - 1)];
+    }
+
+    final int length(int distance) {
+      return lengths[(head + distance) & (kinds.length - 1)];
+    }
+
+    final String name(int distance) {
+      return text.name(kind(distance), start(distance), length(distance));
+    }
+
+    final Token token(int distance) {
+      return text.token(kind(distance), start(distance), length(distance));
+    }
+
+    /**
+     * Same as {@link TokenBuffer#isAdjacent(int)}.
+     */
+    final boolean isAdjacent(int distance) {
+      return distance > 0
+          && start(distance) >= 0
+          && start(distance - 1) >= 0
+          && start(distance) == start(distance - 1) + length(distance - 1);
+    }
+
+    final void take(int tokens) {
+      head = (head + tokens) & (kinds.length - 1);
+      count -= tokens;
+    }
+
+    final void emit(TokenKind kind, int start, int length) {
+      if (count == kinds.length) {
+        grow();
+      }
+      int i = (head + count) & (kinds.length - 1);
+      kinds[i] = kind;
+      starts[i] = start;
+      lengths[i] = length;
+      count++;
+    }
+
+    /**
+     * Emits a token that is spelled as its kind's canonical text.
+     */
+    final void emit(TokenKind kind) {
+      emit(kind, TokenBuffer.SYNTHETIC, 1);
+    }
+
+    /**
+     * Emits the token the given distance ahead in another stage.
+     */
+    final void emit(Stage in, int distance) {
+      emit(in.kind(distance), in.start(distance), in.length(distance));
+    }
+
+    private void grow() {
+      int capacity = kinds.length * 2;
+      TokenKind[] grownKinds = new TokenKind[capacity];
+      int[] grownStarts = new int[capacity];
+      int[] grownLengths = new int[capacity];
+      for (int i = 0; i < count; i++) {
+        int from = (head + i) & (kinds.length - 1);
+        grownKinds[i] = kinds[from];
+        grownStarts[i] = starts[from];
+        grownLengths[i] = lengths[from];
+      }
+      kinds = grownKinds;
+      starts = grownStarts;
+      lengths = grownLengths;
+      head = 0;
+    }
+  }
 
-    return tokens;
+  private static final class Source extends Stage {
+    private final TokenBuffer tokens;
+    private int position;
+
+    private Source(TokenBuffer tokens) {
+      super(tokens);
+      this.tokens = tokens;
+    }
+
+    @Override
+    boolean step() {
+      if (position == tokens.size()) {
+        return false;
+      }
+      emit(tokens.kind(position), tokens.start(position), tokens.length(position));
+      position++;
+      return true;
+    }
   }
 
   /**
@@ -41,30 +237,45 @@ public class BetterReducer {
    * x.+(y.+(z))
    * 
    */
-  private List<Token> rewriteInfixCallsAsPostfix() {
-    int size = tokens.size();
-    List<Token> out = new ArrayList<Token>(size);
+  private static final class RewriteInfixCallsAsPostfix extends Stage {
+    private final Stage in;
+    private int state = FREE;
+    private int infixWrap = 0;
+
+    private RewriteInfixCallsAsPostfix(Stage in) {
+      super(in.text);
+      this.in = in;
+    }
 
-    int state = FREE;
-    int infixWrap = 0;
-    for (int i = 0; i < size; i++) {
-      Token token = tokens.get(i);
+    @Override
+    boolean step() {
+      TokenKind token = in.kind(0);
+      if (null == token) {
+        // End of file writes.
+        if (infixWrap > 0) {
+          // close wrap
+          emit(TokenKind.RPAREN);
+          infixWrap--;
+          return true;
+        }
+        return false;
+      }
 
       // Account for function signatures
-      if (token.isDef() && isNext(i, TokenKind.IDENT)) {
+      if (token == TokenKind.DEF && in.is(1, TokenKind.IDENT)) {
         state = IN_FUNC_SIG;
-      } else if (token.is(TokenKind.COLON) && state == IN_FUNC_SIG) {
+      } else if (token == TokenKind.COLON && state == IN_FUNC_SIG) {
         // out of func sig
         state = FREE;
       }
 
       // Class definitions also should be skipped.
-      if (token.is(TokenKind.CLASS) && isNext(i, TokenKind.TYPE_IDENT, TokenKind.COLON)) {
+      if (token == TokenKind.CLASS && in.is(1, TokenKind.TYPE_IDENT) && in.is(2, TokenKind.COLON)) {
         state = IN_CLASS_DEF;
       }
 
       // end class def.
-      if (state == IN_CLASS_DEF && token.is(TokenKind.RBRACE)) {
+      if (state == IN_CLASS_DEF && token == TokenKind.RBRACE) {
         state = FREE;
       }
 
@@ -72,93 +283,120 @@ public class BetterReducer {
       if (state != IN_FUNC_SIG && state != IN_CLASS_DEF) {
 
         // (Expr) IDENT (Expr)
-        if (isAtom(token) && isNext(i, TokenKind.IDENT)) {
+        if (isAtom(token) && in.is(1, TokenKind.IDENT)) {
 
-          out.add(token);
-          out.add(Token.dot());
-          out.add(lookAhead(i, 1));
-          out.add(Token.lparen());
+          emit(in, 0);
+          emit(TokenKind.DOT);
+          emit(in, 1);
+          emit(TokenKind.LPAREN);
 
           // skip the two idents
-          i += 1;
+          in.take(2);
 
           infixWrap++;
-          continue;
+          return true;
         }
 
-        if (isExpressionDelimiter(token, lookAhead(i, 1)) && infixWrap > 0) {
+        if (isExpressionDelimiter(token) && infixWrap > 0) {
           // close wrap
-          out.add(token);
-          out.add(Token.rparen());
+          emit(in, 0);
+          emit(TokenKind.RPAREN);
+          in.take(1);
           infixWrap--;
-          continue;
+          return true;
         }
       }
-      out.add(token);
+      emit(in, 0);
+      in.take(1);
+      return true;
     }
 
-    // End of file writes.
-    while (infixWrap > 0) {
-      // close wrap
-      out.add(Token.rparen());
-      infixWrap--;
+    private boolean isExpressionDelimiter(TokenKind token) {
+      return token == TokenKind.EOL
+          || token == TokenKind.RBRACE
+          || token == TokenKind.RPAREN
+          || token == TokenKind.GROUPING_RPAREN
+
+          // Free idents are expression delimiters (i.e. infix operators), however
+          // idents followed by a lparen are not (they are new subexpressions)
+          || (token == TokenKind.IDENT
+              && in.has(1) && !in.is(1, TokenKind.LPAREN));
     }
-    return out;
   }
 
-  private boolean isExpressionDelimiter(Token token, Token next) {
-    return token.isExpressionDelimiter()
-
-        // Free idents are expression delimiters (i.e. infix operators), however
-        // idents followed by a lparen are not (they are new subexpressions)
-        || (token.is(TokenKind.IDENT) && null != next && !next.is(TokenKind.LPAREN));
+  private static boolean isAtom(TokenKind back) {
+    return back == TokenKind.IDENT
+        || back == TokenKind.RPAREN
+        || back == TokenKind.DECIMAL
+        || back == TokenKind.INTEGER
+        || back == TokenKind.REGEX
+        || back == TokenKind.STRING
+        || back == TokenKind.TYPE_IDENT;
   }
 
-  private static boolean isAtom(Token back) {
-    return back.is(TokenKind.IDENT)
-        || back.is(TokenKind.RPAREN)
-        || back.is(TokenKind.DECIMAL)
-        || back.is(TokenKind.INTEGER)
-        || back.is(TokenKind.REGEX)
-        || back.is(TokenKind.STRING)
-        || back.is(TokenKind.TYPE_IDENT);
-  }
+  private static final class NormalizeDecimals extends Stage {
+    private final Stage in;
 
-  private List<Token> normalizeDecimals() {
-    int size = tokens.size();
-    List<Token> out = new ArrayList<Token>(size);
+    private NormalizeDecimals(Stage in) {
+      super(in.text);
+      this.in = in;
+    }
 
-    // normalize decimal literals.
-    for (int i = 0; i < size; i++) {
-      Token token = tokens.get(i);
+    @Override
+    boolean step() {
+      if (!in.has(0)) {
+        return false;
+      }
 
       // INT DOT INT
-      if (token.isInteger() && isNext(i, TokenKind.DOT, TokenKind.INTEGER)) {
-        out.add(new Token(String.format("%s.%s", token.getName(),
-            lookAhead(i, 2).getName()), TokenKind.DECIMAL));
+      if (in.is(0, TokenKind.INTEGER) && in.is(1, TokenKind.DOT) && in.is(2, TokenKind.INTEGER)) {
 
-        // skip the dot and int
-        i += 2;
-        continue;
+        // If the literal was written contiguously we can just widen the
+        // window into the source, rather than building a new string.
+        if (in.isAdjacent(1) && in.isAdjacent(2)) {
+          emit(TokenKind.DECIMAL, in.start(0), in.length(0) + 1 + in.length(2));
+        } else {
+          String decimal = String.format("%s.%s", in.name(0), in.name(2));
+          emit(TokenKind.DECIMAL, text.detach(decimal), decimal.length());
+        }
+
+        // skip the int, dot and int
+        in.take(3);
+        return true;
       }
 
-      out.add(token);
+      emit(in, 0);
+      in.take(1);
+      return true;
     }
-    return out;
   }
 
   private static final int FREE = 0;
   private static final int IN_FUNC_SIG = 1;
   private static final int IN_FUNC_BODY = 2;
   private static final int IN_CLASS_DEF = 3;
-  private List<Token> normalizeOnelineFuncsAndGrouping() {
-    int size = tokens.size();
-    List<Token> out = new ArrayList<Token>(size);
 
-    int state = FREE;
-    for (int i = 0; i < size; i++) {
-      Token token = tokens.get(i);
+  private static final class NormalizeOnelineFuncsAndGrouping extends Stage {
+    private final Stage in;
+    private int state = FREE;
 
+    private NormalizeOnelineFuncsAndGrouping(Stage in) {
+      super(in.text);
+      this.in = in;
+    }
+
+    @Override
+    boolean step() {
+      TokenKind token = in.kind(0);
+      if (null == token) {
+        // unterminated do block.
+        if (state == IN_FUNC_BODY) {
+          emit(TokenKind.RBRACE);
+          state = FREE;
+          return true;
+        }
+        return false;
+      }
 
       /**
        * This turns,
@@ -174,59 +412,54 @@ public class BetterReducer {
        * ..to help out the parser.
        */
       // DEF IDENT COLON
-      if (token.isDef() && isNext(i, TokenKind.IDENT)) {
+      if (token == TokenKind.DEF && in.is(1, TokenKind.IDENT)) {
         state = IN_FUNC_SIG;
       }
 
-      if (token.is(TokenKind.COLON) && state == IN_FUNC_SIG) {
+      if (token == TokenKind.COLON && state == IN_FUNC_SIG) {
         state = IN_FUNC_BODY;
 
         // We dont need to do anything if there is already a do block here.
-        if (isNext(i, TokenKind.LBRACE) || isNext(i, TokenKind.EOL, TokenKind.LBRACE)) {
+        if (in.is(1, TokenKind.LBRACE) || (in.is(1, TokenKind.EOL) && in.is(2, TokenKind.LBRACE))) {
           state = FREE;
-
-          // skip this eol, it serves no purpose.
-          if (isNext(i, TokenKind.EOL)) {
-            i++;
-          }
-
+          emit(in, 0);
         } else {
-          out.add(token);
-          out.add(new Token("{", TokenKind.LBRACE));
-
-          // skip this eol, it serves no purpose.
-          if (isNext(i, TokenKind.EOL)) {
-            i++;
-          }
-          continue;
+          emit(in, 0);
+          emit(TokenKind.LBRACE);
         }
+
+        // skip this eol, it serves no purpose.
+        in.take(in.is(1, TokenKind.EOL) ? 2 : 1);
+        return true;
       }
 
       // End do block after a line. And get rid of stupid eols.
-      if (token.isEol() && state == IN_FUNC_BODY) {
-        out.add(new Token("}", TokenKind.RBRACE));
+      if (token == TokenKind.EOL && state == IN_FUNC_BODY) {
+        emit(TokenKind.RBRACE);
+        in.take(1);
         state = FREE;
-        continue;
+        return true;
       }
 
-      out.add(token);
-    }
-
-    // unterminated do block.
-    if (state == IN_FUNC_BODY) {
-        out.add(new Token("}", TokenKind.RBRACE));
+      emit(in, 0);
+      in.take(1);
+      return true;
     }
-
-    return out;
   }
 
-  private List<Token> normalizeThunks() {
-    int size = tokens.size();
-    List<Token> out = new ArrayList<Token>(size);
+  private static final class NormalizeThunks extends Stage {
+    private final Stage in;
 
-    // normalize decimal literals.
-    for (int i = 0; i < size; i++) {
-      Token token = tokens.get(i);
+    private NormalizeThunks(Stage in) {
+      super(in.text);
+      this.in = in;
+    }
+
+    @Override
+    boolean step() {
+      if (!in.has(0)) {
+        return false;
+      }
 
       /**
        * This turns,
@@ -239,76 +472,63 @@ public class BetterReducer {
        * ..to help out the parser.
        */
       // DEF IDENT COLON
-      if (token.isDef() && isNext(i, TokenKind.IDENT, TokenKind.COLON)) {
+      if (in.is(0, TokenKind.DEF) && in.is(1, TokenKind.IDENT) && in.is(2, TokenKind.COLON)) {
 
         // add DEF IDENT LPAREN RPAREN COLON
-        out.add(token);
-        out.add(lookAhead(i, 1));
-        out.add(new Token("(", TokenKind.LPAREN));
-        out.add(new Token(")", TokenKind.RPAREN));
-        out.add(lookAhead(i, 2));
-
-        // skip the ident and colon (coz we just added them)
-        i += 2;
-        continue;
+        emit(in, 0);
+        emit(in, 1);
+        emit(TokenKind.LPAREN);
+        emit(TokenKind.RPAREN);
+        emit(in, 2);
+
+        // skip the def, ident and colon (coz we just added them)
+        in.take(3);
+        return true;
       }
 
-      out.add(token);
+      emit(in, 0);
+      in.take(1);
+      return true;
     }
-    return out;
   }
 
   /**
    * This turns a sequence of newlines into just one.
    */
-  private List<Token> reduceNewlines() {
-    int size = tokens.size();
-    List<Token> out = new ArrayList<Token>(size);
+  private static final class ReduceNewlines extends Stage {
+    private final Stage in;
+    private int paren = 0;
 
-    int paren = 0;
-    for (int i = 0; i < size; i++) {
-      Token token = tokens.get(i);
+    private ReduceNewlines(Stage in) {
+      super(in.text);
+      this.in = in;
+    }
+
+    @Override
+    boolean step() {
+      TokenKind token = in.kind(0);
+      if (null == token) {
+        if (paren != 0) {
+          throw new PurpleGrammarException("Unbalanced ()");
+        }
+        return false;
+      }
 
       // EOL+
-      if (token.isEol() && isNext(i, TokenKind.EOL)) {
-        continue;
+      if (token == TokenKind.EOL && in.is(1, TokenKind.EOL)) {
+        in.take(1);
+        return true;
       }
 
-      if (token.is(TokenKind.LPAREN)) {
+      if (token == TokenKind.LPAREN) {
         paren++;
-      } else if (token.is(TokenKind.RPAREN)) {
+      } else if (token == TokenKind.RPAREN) {
         paren--;
       }
 
-      out.add(token);
-    }
-
-    if (paren != 0) {
-      throw new PurpleGrammarException("Unbalanced ()");
-    }
-    return out;
-  }
-
-  public boolean isNext(int start, TokenKind... kinds) {
-    for (TokenKind kind : kinds) {
-      Token next = lookAhead(start, 1);
-      if (null == next) {
-        return false;
-      }
-      if (!kind.equals(next.getKind())) {
-        return false;
-      }
-
-      start++;
-    }
-    return true;
-  }
-
-  public Token lookAhead(int start, int distance) {
-    int i = start + distance;
-    if (i < tokens.size()) {
-      return tokens.get(i);
+      emit(in, 0);
+      in.take(1);
+      return true;
     }
-    return null;
   }
 }
@@ -0,0 +1,156 @@
+package purple;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Finds token boundaries in UTF-8 source eight bytes at a time, using
+ * SWAR (SIMD within a register) tricks on longs. Most of a source is
+ * long identifier runs and indentation, which this skips over in whole
+ * words rather than classifying byte by byte.
+ *
+ * A byte is reported as a (possible) boundary if it is not definitely
+ * part of an identifier: whitespace and control chars, single char
+ * tokens like parens, and any non-ASCII byte. So the scan is
+ * conservative, and the caller still classifies bytes at a boundary.
+ *
+ * All methods expect a little-endian view of the source bytes.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+final class DelimiterScanner {
+  private static final long ONES = 0x0101010101010101L;
+  private static final long HIGHS = 0x8080808080808080L;
+  private static final long LOWS = 0x7F7F7F7F7F7F7F7FL;
+
+  // Adding this to a 7-bit byte sets its high bit iff it is > ' '
+  private static final long ABOVE_SPACE = ONES * (0x80 - 0x21);
+
+  private static final long SPACES = ONES * ' ';
+  private static final long TABS = ONES * '\t';
+
+  /**
+   * Single char tokens, broadcast to every byte of a word.
+   */
+  private static final long[] singleCharTokens;
+
+  static {
+    int count = 0;
+    long[] broadcast = new long[128];
+    for (char c = 0; c < 128; c++) {
+      if (Tokenizer.classOf(c) == Tokenizer.SINGLE_CHAR_TOKEN) {
+        broadcast[count++] = ONES * c;
+      }
+    }
+
+    singleCharTokens = new long[count];
+    System.arraycopy(broadcast, 0, singleCharTokens, 0, count);
+  }
+
+  private DelimiterScanner() {
+  }
+
+  /**
+   * Returns the index of the first possible token boundary at or after
+   * from, or limit if there is none before it.
+   */
+  static int nextBoundary(ByteBuffer bytes, int from, int limit) {
+    int i = from;
+    for (; i + 8 <= limit; i += 8) {
+      long boundaries = boundaries(bytes.getLong(i));
+      if (boundaries != 0) {
+        return i + (Long.numberOfTrailingZeros(boundaries) >>> 3);
+      }
+    }
+
+    // Scalar tail.
+    for (; i < limit; i++) {
+      if (isBoundary(bytes.get(i))) {
+        return i;
+      }
+    }
+    return limit;
+  }
+
+  /**
+   * Returns the index of the first byte at or after from that is not a
+   * space or tab, or limit if there is none before it.
+   */
+  static int skipBlanks(ByteBuffer bytes, int from, int limit) {
+    int i = from;
+    for (; i + 8 <= limit; i += 8) {
+      long word = bytes.getLong(i);
+      long nonBlanks = ~(zeros(word ^ SPACES) | zeros(word ^ TABS)) & HIGHS;
+      if (nonBlanks != 0) {
+        return i + (Long.numberOfTrailingZeros(nonBlanks) >>> 3);
+      }
+    }
+
+    for (; i < limit; i++) {
+      byte b = bytes.get(i);
+      if (b != ' ' && b != '\t') {
+        return i;
+      }
+    }
+    return limit;
+  }
+
+  /**
+   * Returns a bitmap of the possible token boundaries in the 64 bytes
+   * starting at from, with bit n set if byte (from + n) is one. Bytes
+   * at or past limit are reported as boundaries.
+   */
+  static long boundaryBitmap(ByteBuffer bytes, int from, int limit) {
+    long bitmap = 0;
+    for (int word = 0; word < 8; word++) {
+      int i = from + word * 8;
+      long bits;
+      if (i + 8 <= limit) {
+        bits = gather(boundaries(bytes.getLong(i)));
+      } else {
+        bits = 0;
+        for (int b = 0; b < 8; b++) {
+          if (i + b >= limit || isBoundary(bytes.get(i + b))) {
+            bits |= 1L << b;
+          }
+        }
+      }
+      bitmap |= bits << (word * 8);
+    }
+    return bitmap;
+  }
+
+  /**
+   * The scalar equivalent of the word scan, for a single byte.
+   */
+  static boolean isBoundary(byte b) {
+    return b <= ' ' || Tokenizer.classOf((char) b) == Tokenizer.SINGLE_CHAR_TOKEN;
+  }
+
+  /**
+   * Sets the high bit of each byte in the word that may be a boundary.
+   */
+  private static long boundaries(long word) {
+    // Non-ASCII, and everything at or below space.
+    long boundaries = (word & HIGHS) | ~(((word & LOWS) + ABOVE_SPACE) | word | LOWS);
+
+    for (long token : singleCharTokens) {
+      boundaries |= zeros(word ^ token);
+    }
+    return boundaries;
+  }
+
+  /**
+   * Sets the high bit of each byte in the word that is zero (exactly,
+   * with no false positives from borrows).
+   */
+  private static long zeros(long word) {
+    return ~(((word & LOWS) + LOWS) | word | LOWS);
+  }
+
+  /**
+   * Gathers the high bit of each byte into the low 8 bits.
+   */
+  private static long gather(long highBits) {
+    return ((highBits >>> 7) * 0x0102040810204080L) >>> 56;
+  }
+}
@@ -1,26 +1,125 @@
 package purple;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * Tools for working with keywords
+ * Tools for working with keywords, and other reserved multi-char symbols
+ * (like the arrows).
+ *
+ * Keywords are recognized with a perfect hash on (length, first char,
+ * last char), which is generated at startup from the list of keywords
+ * below. So a lookup is a bit of arithmetic, one table read and at most
+ * one compare, and never allocates. To reserve a new keyword just add
+ * it to the list.
  *
  * @author Dhanji R. Prasanna (dhanji@gmail com)
  */
 public class Keywords {
+  private static final int MAX_TABLE_SIZE = 1 << 12;
 
-  private static final Map<String, TokenKind> keywords;
+  private static final List<Keyword> keywords = new ArrayList<Keyword>();
+  private static Keyword[] table;
+  private static int seed;
+  private static int mask;
 
   static {
-    keywords = new HashMap<String, TokenKind>();
-    keywords.put("module", TokenKind.MODULE);
-    keywords.put("def", TokenKind.DEF);
-    keywords.put("require", TokenKind.REQUIRE);
-    keywords.put("class", TokenKind.CLASS);
+    keyword("module", TokenKind.MODULE);
+    keyword("def", TokenKind.DEF);
+    keyword("require", TokenKind.REQUIRE);
+    keyword("class", TokenKind.CLASS);
+
+    // operators
+    keyword("->", TokenKind.THIN_ARROW);
+    keyword("=>", TokenKind.FAT_ARROW);
+
+    generatePerfectHash();
+  }
+
+  private static void keyword(String spelling, TokenKind kind) {
+    keywords.add(new Keyword(spelling, kind));
   }
 
   public static TokenKind get(String string) {
-    return keywords.get(string);
+    return get(string, 0, string.length());
+  }
+
+  public static TokenKind get(String source, int start, int length) {
+    if (length == 0) {
+      return null;
+    }
+    Keyword keyword = candidate(length, source.charAt(start), source.charAt(start + length - 1));
+    if (null != keyword && source.regionMatches(start, keyword.spelling, 0, length)) {
+      return keyword.kind;
+    }
+    return null;
+  }
+
+  /**
+   * Returns the only keyword that a token of the given length and first and
+   * last chars could possibly be, or null if there is none. The caller
+   * must still check that the rest of the token matches.
+   */
+  static Keyword candidate(int length, char first, char last) {
+    Keyword keyword = table[hash(length, first, last, seed) & mask];
+    if (null != keyword && keyword.spelling.length() == length) {
+      return keyword;
+    }
+    return null;
+  }
+
+  private static int hash(int length, char first, char last, int seed) {
+    int hash = (first * seed) ^ (last * 31) ^ length;
+    return hash ^ (hash >>> 7);
+  }
+
+  /**
+   * Searches for the smallest table size (and a seed) under which no two
+   * keywords hash to the same slot.
+   */
+  private static void generatePerfectHash() {
+    int size = Integer.highestOneBit(keywords.size() * 2 - 1) << 1;
+    for (; size <= MAX_TABLE_SIZE; size <<= 1) {
+      for (int candidate = 1; candidate < 1 << 16; candidate += 2) {
+        Keyword[] slots = tryHash(size, candidate);
+        if (null != slots) {
+          table = slots;
+          seed = candidate;
+          mask = size - 1;
+          return;
+        }
+      }
+    }
+    throw new IllegalStateException("Unable to generate a perfect hash for keywords " + keywords);
+  }
+
+  private static Keyword[] tryHash(int size, int seed) {
+    Keyword[] slots = new Keyword[size];
+    for (Keyword keyword : keywords) {
+      String spelling = keyword.spelling;
+      int slot = hash(spelling.length(), spelling.charAt(0),
+          spelling.charAt(spelling.length() - 1), seed) & (size - 1);
+
+      if (null != slots[slot]) {
+        return null;
+      }
+      slots[slot] = keyword;
+    }
+    return slots;
+  }
+
+  static final class Keyword {
+    final String spelling;
+    final TokenKind kind;
+
+    private Keyword(String spelling, TokenKind kind) {
+      this.spelling = spelling;
+      this.kind = kind;
+    }
+
+    @Override
+    public String toString() {
+      return spelling;
+    }
   }
 }
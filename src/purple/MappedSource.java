@@ -0,0 +1,84 @@
+package purple;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * A UTF-8 source file mapped into memory, rather than read onto the heap.
+ * Files larger than a single mapping can address are mapped as a series
+ * of regions. The OS page cache does all the buffering.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public class MappedSource {
+  private static final int REGION_BITS = 30;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final MappedByteBuffer[] regions;
+  private final int regionBits;
+  private final long regionMask;
+  private final long size;
+
+  private MappedSource(MappedByteBuffer[] regions, int regionBits, long size) {
+    this.regions = regions;
+    this.regionBits = regionBits;
+    this.regionMask = (1L << regionBits) - 1;
+    this.size = size;
+  }
+
+  public static MappedSource open(File file) throws IOException {
+    return open(file, REGION_BITS);
+  }
+
+  static MappedSource open(File file, int regionBits) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      long size = channel.size();
+      long regionSize = 1L << regionBits;
+      MappedByteBuffer[] regions = new MappedByteBuffer[(int) ((size + regionSize - 1) >>> regionBits)];
+
+      // Mappings stay valid after the channel is closed.
+      for (int i = 0; i < regions.length; i++) {
+        long position = (long) i << regionBits;
+        regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+            Math.min(regionSize, size - position));
+      }
+      return new MappedSource(regions, regionBits, size);
+    } finally {
+      raf.close();
+    }
+  }
+
+  public long size() {
+    return size;
+  }
+
+  int regionBits() {
+    return regionBits;
+  }
+
+  MappedByteBuffer region(int index) {
+    return regions[index];
+  }
+
+  public byte get(long position) {
+    return regions[(int) (position >>> regionBits)].get((int) (position & regionMask));
+  }
+
+  /**
+   * Decodes the given range of the source. Only meant for the text of
+   * individual tokens.
+   */
+  public String decode(long start, int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = get(start + i);
+    }
+    return new String(bytes, UTF_8);
+  }
+}
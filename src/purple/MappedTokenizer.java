@@ -0,0 +1,235 @@
+package purple;
+
+import purple.syntax.PurpleGrammarException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Lexes a memory-mapped UTF-8 source directly from its bytes, writing
+ * the raw token stream to an {@link OffHeapTokenBuffer}. Nothing is
+ * decoded into a String or char[] along the way, so the heap cost of
+ * lexing even a multi-gigabyte script is close to nothing.
+ *
+ * Lexes exactly as {@link Tokenizer#lex()} does, except that token
+ * offsets are in bytes rather than chars.
+ *
+ * The rest of an identifier, and runs of blanks, are skipped over a word
+ * at a time by the {@link DelimiterScanner}, rather than byte by byte.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public class MappedTokenizer {
+  private final MappedSource source;
+  private final boolean wordScan;
+
+  public MappedTokenizer(MappedSource source) {
+    this(source, true);
+  }
+
+  /**
+   * With wordScan off, every byte is classified on its own (the scalar
+   * path). Only useful for testing and benchmarking the word scan.
+   */
+  MappedTokenizer(MappedSource source, boolean wordScan) {
+    this.source = source;
+    this.wordScan = wordScan;
+  }
+
+  public OffHeapTokenBuffer lex() throws IOException {
+    OffHeapTokenBuffer tokens = new OffHeapTokenBuffer(source);
+    long tokenStart = -1;   // start of the token we're in, if any
+    boolean isNumeric = true;
+    int inParen = 0;
+
+    int regionBits = source.regionBits();
+    long position = 0;
+    long size = source.size();
+    while (position < size) {
+      int regionIndex = (int) (position >>> regionBits);
+      MappedByteBuffer region = source.region(regionIndex);
+      long base = (long) regionIndex << regionBits;
+      int limit = region.limit();
+      ByteBuffer words = region.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+      int i = (int) (position - base);
+      while (i < limit) {
+        byte b = region.get(i);
+        long at = base + i;
+
+        // ASCII is classified straight off the byte. Multibyte sequences
+        // are decoded just far enough to classify them.
+        byte charClass;
+        int width = 1;
+        if (b >= 0) {
+          charClass = Tokenizer.classOf((char) b);
+        } else {
+          width = widthOf(b, at);
+          charClass = width == 1 ? Tokenizer.OTHER : classOf(decode(at, width));
+        }
+
+        switch (charClass) {
+          case Tokenizer.WHITESPACE:
+            // end of token?
+            if (tokenStart >= 0) {
+              bakeToken(tokens, tokenStart, at, isNumeric);
+              tokenStart = -1;
+              isNumeric = true;
+            }
+
+            // Add EOLs, but skip newlines in () groups.
+            if ('\n' == b && inParen == 0) {
+              tokens.add(TokenKind.EOL, at, 1);
+            }
+            break;
+
+          case Tokenizer.SINGLE_CHAR_TOKEN:
+            if (tokenStart >= 0) {
+              bakeToken(tokens, tokenStart, at, isNumeric);
+              tokenStart = -1;
+              isNumeric = true;
+            }
+
+            if ('(' == b) {
+              inParen++;
+            } else if (')' == b) {
+              inParen--;
+            }
+
+            tokens.add(Tokenizer.charTokenKind((char) b), at, 1);
+            break;
+
+          case Tokenizer.DIGIT:
+            if (tokenStart < 0) {
+              tokenStart = at;
+            }
+            break;
+
+          default:
+            // the current token we're looking at is not a pure integer
+            if (tokenStart < 0) {
+              tokenStart = at;
+            }
+            isNumeric = false;
+        }
+
+        // Note that a multibyte char may run on into the next region.
+        i += width;
+
+        // Skip straight to the end of an identifier, or of a run of blanks.
+        // Everything in between can't change the state of the lexer.
+        if (wordScan && i < limit) {
+          if (tokenStart >= 0 && !isNumeric) {
+            i = DelimiterScanner.nextBoundary(words, i, limit);
+          } else if (tokenStart < 0 && (' ' == b || '\t' == b)) {
+            i = DelimiterScanner.skipBlanks(words, i, limit);
+          }
+        }
+      }
+      position = base + i;
+    }
+
+    // last token.
+    if (tokenStart >= 0) {
+      bakeToken(tokens, tokenStart, size, isNumeric);
+    }
+
+    return tokens;
+  }
+
+  private void bakeToken(OffHeapTokenBuffer tokens, long start, long end, boolean isNumeric)
+      throws IOException {
+    long length = end - start;
+    if (length > OffHeapTokenBuffer.MAX_TOKEN_LENGTH) {
+      throw new PurpleGrammarException("compile error, token too long at byte offset: " + start);
+    }
+
+    // Do something with this token. Decide if it is an identifier or not.
+    TokenKind tokenKind = isNumeric ? TokenKind.INTEGER : resolve(start, (int) length);
+    tokens.add(tokenKind, start, (int) length);
+  }
+
+  /**
+   * Same as {@link TokenKind#resolve(String)}, but over raw bytes.
+   */
+  private TokenKind resolve(long start, int length) {
+    // Keywords and operators.
+    byte first = source.get(start);
+    byte last = source.get(start + length - 1);
+    if (first >= 0 && last >= 0) {
+      Keywords.Keyword keyword = Keywords.candidate(length, (char) first, (char) last);
+      if (null != keyword && matches(start, keyword.spelling)) {
+        return keyword.kind;
+      }
+    }
+
+    // Only type names are allowed to begin with upper case.
+    int c = first;
+    if (first < 0) {
+      int width = widthOf(first, start);
+      c = width == 1 ? -1 : decode(start, width);
+    }
+    if (c >= 0 && c <= Character.MAX_VALUE && Character.isUpperCase((char) c)) {
+      return TokenKind.TYPE_IDENT;
+    }
+
+    return TokenKind.IDENT;
+  }
+
+  /**
+   * Compares a run of bytes against an (all ASCII) keyword spelling.
+   */
+  private boolean matches(long start, String spelling) {
+    for (int i = 0; i < spelling.length(); i++) {
+      if (source.get(start + i) != spelling.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Length of the UTF-8 sequence starting with the given lead byte,
+   * or 1 if it is malformed (in which case it's treated as an ident char).
+   */
+  private int widthOf(byte lead, long at) {
+    int width;
+    if ((lead & 0xE0) == 0xC0) {
+      width = 2;
+    } else if ((lead & 0xF0) == 0xE0) {
+      width = 3;
+    } else if ((lead & 0xF8) == 0xF0) {
+      width = 4;
+    } else {
+      return 1;
+    }
+
+    if (at + width > source.size()) {
+      return 1;
+    }
+    for (int i = 1; i < width; i++) {
+      if ((source.get(at + i) & 0xC0) != 0x80) {
+        return 1;
+      }
+    }
+    return width;
+  }
+
+  private int decode(long at, int width) {
+    int c = source.get(at) & (0xFF >>> (width + 1));
+    for (int i = 1; i < width; i++) {
+      c = c << 6 | (source.get(at + i) & 0x3F);
+    }
+    return c;
+  }
+
+  /**
+   * Supplementary chars lex as a pair of surrogates in a String, and
+   * those are always ident chars.
+   */
+  private static byte classOf(int c) {
+    return c <= Character.MAX_VALUE ? Tokenizer.classOf((char) c) : Tokenizer.OTHER;
+  }
+}
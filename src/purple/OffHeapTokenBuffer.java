@@ -0,0 +1,114 @@
+package purple;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A token table kept outside the Java heap, for sources too big to hold
+ * there. Each token is a fixed-size record of (start, length, kind), with
+ * offsets into a {@link MappedSource}.
+ *
+ * Records are written to a temporary file, mapped into memory a chunk at
+ * a time, rather than to direct buffers: direct memory is capped (by
+ * -XX:MaxDirectMemorySize, which defaults to the heap size), whereas the
+ * OS pages a mapped file in and out as it sees fit. Close the buffer to
+ * delete the file, after which its tokens may no longer be read. The file
+ * is not otherwise deleted (not even on exit, as the VM would hold on to
+ * the name of every such file until then), so a buffer must be closed.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public class OffHeapTokenBuffer implements Closeable {
+  private static final TokenKind[] KINDS = TokenKind.values();
+
+  // record layout: long start, int (length << 8 | kind)
+  private static final int RECORD_SIZE = 12;
+  private static final int CHUNK_BITS = 20;
+  private static final int CHUNK_RECORDS = 1 << CHUNK_BITS;
+  private static final int CHUNK_MASK = CHUNK_RECORDS - 1;
+  private static final int CHUNK_SIZE = CHUNK_RECORDS * RECORD_SIZE;
+  static final int MAX_TOKEN_LENGTH = (1 << 24) - 1;
+
+  private final MappedSource source;
+  private final File file;
+  private final RandomAccessFile records;
+  private final List<MappedByteBuffer> chunks = new ArrayList<MappedByteBuffer>();
+  private long size;
+
+  public OffHeapTokenBuffer(MappedSource source) throws IOException {
+    this.source = source;
+    this.file = File.createTempFile("purple", ".tokens");
+    try {
+      this.records = new RandomAccessFile(file, "rw");
+    } catch (IOException e) {
+      file.delete();
+      throw e;
+    }
+  }
+
+  public void add(TokenKind kind, long start, int length) throws IOException {
+    int offset = (int) (size & CHUNK_MASK);
+    if (offset == 0) {
+      // Mapping past the end of the file grows it.
+      chunks.add(records.getChannel().map(FileChannel.MapMode.READ_WRITE,
+          (long) chunks.size() * CHUNK_SIZE, CHUNK_SIZE));
+    }
+
+    MappedByteBuffer chunk = chunks.get(chunks.size() - 1);
+    offset *= RECORD_SIZE;
+    chunk.putLong(offset, start);
+    chunk.putInt(offset + 8, length << 8 | kind.ordinal());
+    size++;
+  }
+
+  public long size() {
+    return size;
+  }
+
+  public TokenKind kind(long index) {
+    return KINDS[chunk(index).getInt(offset(index) + 8) & 0xFF];
+  }
+
+  public long start(long index) {
+    return chunk(index).getLong(offset(index));
+  }
+
+  public int length(long index) {
+    return chunk(index).getInt(offset(index) + 8) >>> 8;
+  }
+
+  public String name(long index) {
+    return source.decode(start(index), length(index));
+  }
+
+  /**
+   * Materializes the token at the given index, onto the heap.
+   */
+  public Token get(long index) {
+    return new Token(name(index), kind(index));
+  }
+
+  @Override
+  public void close() throws IOException {
+    chunks.clear();
+    try {
+      records.close();
+    } finally {
+      file.delete();
+    }
+  }
+
+  private MappedByteBuffer chunk(long index) {
+    return chunks.get((int) (index >>> CHUNK_BITS));
+  }
+
+  private static int offset(long index) {
+    return (int) (index & CHUNK_MASK) * RECORD_SIZE;
+  }
+}
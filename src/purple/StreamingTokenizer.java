@@ -0,0 +1,197 @@
+package purple;
+
+import purple.syntax.PurpleGrammarException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A tokenizer that lexes from a character stream through a fixed-size
+ * window, handing out raw tokens one at a time as it goes. Unlike
+ * {@link Tokenizer}, the source is never held in memory all at once,
+ * so memory use is bounded by the window size no matter how large the
+ * input is (barring single tokens that are bigger than the window).
+ *
+ * Tokens produced this way own their text, since the window they are
+ * lexed from is reused.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public class StreamingTokenizer {
+  static final int DEFAULT_WINDOW_SIZE = 8192;
+  private static final String EOL = "\n";
+
+  private final Reader reader;
+  private final char[] window;
+
+  // lexer state, carried across refills of the window.
+  private int position;
+  private int limit;
+  private int tokenStart = -1;
+  private boolean isNumeric = true;
+  private int inParen;
+  private boolean eof;
+
+  // Holds the head of a token that did not fit in the window.
+  private StringBuilder overflow;
+
+  public StreamingTokenizer(Reader reader) {
+    this(reader, DEFAULT_WINDOW_SIZE);
+  }
+
+  public StreamingTokenizer(ReadableByteChannel channel) {
+    this(Channels.newReader(channel, Charset.forName("UTF-8").newDecoder(), DEFAULT_WINDOW_SIZE),
+        DEFAULT_WINDOW_SIZE);
+  }
+
+  StreamingTokenizer(Reader reader, int windowSize) {
+    this.reader = reader;
+    this.window = new char[windowSize];
+  }
+
+  /**
+   * Returns the next raw (i.e. unreduced) token in the stream, or null
+   * if the stream is exhausted.
+   */
+  public Token next() throws IOException {
+    while (true) {
+      if (position == limit && !fill()) {
+        // last token.
+        return inToken() ? bakeToken(limit) : null;
+      }
+
+      char c = window[position];
+      switch (Tokenizer.classOf(c)) {
+        case Tokenizer.WHITESPACE:
+          // end of token? We leave the whitespace to be seen again next time.
+          if (inToken()) {
+            return bakeToken(position);
+          }
+          position++;
+
+          // Add EOLs, but skip newlines in () groups.
+          if ('\n' == c && inParen == 0) {
+            return new Token(EOL, TokenKind.EOL);
+          }
+          break;
+
+        case Tokenizer.SINGLE_CHAR_TOKEN:
+          if (inToken()) {
+            return bakeToken(position);
+          }
+          position++;
+
+          if ('(' == c) {
+            inParen++;
+          } else if (')' == c) {
+            inParen--;
+          }
+
+          TokenKind kind = Tokenizer.charTokenKind(c);
+          return new Token(TokenBuffer.spellingOf(kind), kind);
+
+        case Tokenizer.DIGIT:
+          if (tokenStart < 0) {
+            tokenStart = position;
+          }
+          position++;
+          break;
+
+        default:
+          // the current token we're looking at is not a pure integer
+          if (tokenStart < 0) {
+            tokenStart = position;
+          }
+          isNumeric = false;
+          position++;
+      }
+    }
+  }
+
+  /**
+   * Lexes and reduces the entire stream. Note that this holds all the
+   * tokens in memory, but not the source.
+   */
+  public List<Token> tokenize() throws IOException {
+    List<Token> tokens = new ArrayList<Token>();
+    for (Token token = next(); token != null; token = next()) {
+      tokens.add(token);
+    }
+
+    return new BetterReducer(tokens).reduceTokenStream();
+  }
+
+  private boolean inToken() {
+    return tokenStart >= 0 || null != overflow;
+  }
+
+  /**
+   * Refills the window from the reader, keeping any token in progress.
+   * Returns false if there is nothing more to read.
+   */
+  private boolean fill() throws IOException {
+    if (eof) {
+      return false;
+    }
+
+    if (tokenStart > 0) {
+      // slide the partial token down to the front of the window.
+      int partial = limit - tokenStart;
+      System.arraycopy(window, tokenStart, window, 0, partial);
+      tokenStart = 0;
+      limit = partial;
+    } else if (tokenStart == 0) {
+      // the partial token fills the whole window, so spill it.
+      if (null == overflow) {
+        overflow = new StringBuilder(window.length * 2);
+      }
+      overflow.append(window, 0, limit);
+      tokenStart = -1;
+      limit = 0;
+    } else {
+      limit = 0;
+    }
+    position = limit;
+
+    int read;
+    do {
+      read = reader.read(window, limit, window.length - limit);
+    } while (read == 0);
+
+    if (read < 0) {
+      eof = true;
+      return false;
+    }
+    limit += read;
+    return true;
+  }
+
+  private Token bakeToken(int end) {
+    String text;
+    if (null != overflow) {
+      if (tokenStart >= 0) {
+        overflow.append(window, tokenStart, end - tokenStart);
+      }
+      text = overflow.toString();
+      overflow = null;
+    } else {
+      text = new String(window, tokenStart, end - tokenStart);
+    }
+
+    // Do something with this token. Decide if it is an identifier or not.
+    TokenKind tokenKind = isNumeric ? TokenKind.INTEGER : TokenKind.resolve(text);
+    if (null == tokenKind) {
+      // add compiler error.
+      throw new PurpleGrammarException("compile error, unrecognized symbol: " + text);
+    }
+
+    tokenStart = -1;
+    isNumeric = true;
+    return new Token(text, tokenKind);
+  }
+}
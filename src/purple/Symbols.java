@@ -0,0 +1,186 @@
+package purple;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A global table of interned identifier names, shared by every script
+ * compiled in this VM. Each distinct name is given a compact int symbol,
+ * so names can be compared by int, and there is only ever one copy of
+ * the string for any given name.
+ *
+ * Lookups never lock, and a lookup of a name that's already interned
+ * does not allocate, even when the name is just a region of some larger
+ * source text.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public final class Symbols {
+  /**
+   * Names are kept in pages of this many symbols, up to this many pages,
+   * which bounds the symbols there can be. Other tables indexed by symbol
+   * are paged the same way.
+   */
+  public static final int PAGE_BITS = 12;
+  public static final int PAGE_SIZE = 1 << PAGE_BITS;
+  public static final int MAX_PAGES = 1 << 16;
+
+  private static final ConcurrentMap<Key, Symbol> symbols = new ConcurrentHashMap<Key, Symbol>();
+  private static final AtomicInteger nextSymbol = new AtomicInteger();
+
+  // symbol -> name, in pages so it can grow without copying or locking.
+  private static final AtomicReferenceArray<String[]> names =
+      new AtomicReferenceArray<String[]>(MAX_PAGES);
+
+  private static final ThreadLocal<Probe> probes = new ThreadLocal<Probe>() {
+    @Override
+    protected Probe initialValue() {
+      return new Probe();
+    }
+  };
+
+  private Symbols() {
+  }
+
+  public static int intern(String name) {
+    return intern(name, 0, name.length());
+  }
+
+  /**
+   * Interns the given region of some source text, without copying it
+   * out unless it has never been seen before.
+   */
+  public static int intern(CharSequence source, int start, int length) {
+    Probe probe = probes.get();
+    Symbol symbol = symbols.get(probe.of(source, start, length));
+    probe.clear();
+    if (null != symbol) {
+      return symbol.id;
+    }
+
+    // First time we've seen this name. Note that we may race another
+    // thread to it, in which case the loser's id is simply never used.
+    String name = source.subSequence(start, start + length).toString();
+    int id = nextSymbol.getAndIncrement();
+    if (id >= MAX_PAGES * PAGE_SIZE) {
+      throw new IllegalStateException("Symbol table is full");
+    }
+    page(id)[id & (PAGE_SIZE - 1)] = name;
+
+    symbol = new Symbol(name, id);
+    Symbol existing = symbols.putIfAbsent(symbol, symbol);
+    return null == existing ? id : existing.id;
+  }
+
+  public static String nameOf(int symbol) {
+    return names.get(symbol >>> PAGE_BITS)[symbol & (PAGE_SIZE - 1)];
+  }
+
+  /**
+   * The number of distinct names interned so far.
+   */
+  public static int size() {
+    return symbols.size();
+  }
+
+  private static String[] page(int id) {
+    int index = id >>> PAGE_BITS;
+    String[] page = names.get(index);
+    if (null == page) {
+      names.compareAndSet(index, null, new String[PAGE_SIZE]);
+      page = names.get(index);
+    }
+    return page;
+  }
+
+  /**
+   * Names are keyed by their characters, so that a region of text
+   * can be looked up in place, against an already interned name.
+   */
+  private abstract static class Key {
+    int hash;
+
+    abstract int length();
+
+    abstract char charAt(int index);
+
+    @Override
+    public final boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Key)) return false;
+
+      Key key = (Key) o;
+      if (hash != key.hash || length() != key.length()) return false;
+
+      for (int i = 0, length = length(); i < length; i++) {
+        if (charAt(i) != key.charAt(i)) return false;
+      }
+      return true;
+    }
+
+    @Override
+    public final int hashCode() {
+      return hash;
+    }
+  }
+
+  private static final class Symbol extends Key {
+    private final String name;
+    private final int id;
+
+    private Symbol(String name, int id) {
+      this.name = name;
+      this.id = id;
+      this.hash = name.hashCode();
+    }
+
+    @Override
+    int length() {
+      return name.length();
+    }
+
+    @Override
+    char charAt(int index) {
+      return name.charAt(index);
+    }
+  }
+
+  /**
+   * Reusable, per-thread lookup key over a region of text.
+   */
+  private static final class Probe extends Key {
+    private CharSequence source;
+    private int start;
+    private int length;
+
+    private Probe of(CharSequence source, int start, int length) {
+      this.source = source;
+      this.start = start;
+      this.length = length;
+
+      // Same as String.hashCode()
+      int hash = 0;
+      for (int i = start, end = start + length; i < end; i++) {
+        hash = 31 * hash + source.charAt(i);
+      }
+      this.hash = hash;
+      return this;
+    }
+
+    private void clear() {
+      source = null;
+    }
+
+    @Override
+    int length() {
+      return length;
+    }
+
+    @Override
+    char charAt(int index) {
+      return source.charAt(start + index);
+    }
+  }
+}
@@ -1,16 +1,35 @@
 package purple;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
+ * A lexical token. Tokens don't carry their own copy of their text, they
+ * are a window (start, length) into the source they were lexed from, which
+ * is shared by every token of a script. The name is only cut out of the
+ * source when asked for.
+ *
  * @author Dhanji R. Prasanna (dhanji@gmail com)
  */
 public class Token {
-  private final String name;
+  private final String source;
+  private final int start;
+  private final int length;
   private final TokenKind tokenKind;
 
   private int balancingTokenIndex;
 
+  // interned on demand, see getSymbol()
+  private int symbol = -1;
+
   public Token(String name, TokenKind tokenKind) {
-    this.name = name;
+    this(name, 0, name.length(), tokenKind);
+  }
+
+  Token(String source, int start, int length, TokenKind tokenKind) {
+    this.source = source;
+    this.start = start;
+    this.length = length;
     this.tokenKind = tokenKind;
   }
 
@@ -28,7 +47,7 @@ public class Token {
   }
 
   public String getPrintableName() {
-    return TokenKind.EOL.equals(this.tokenKind) ? "\\n" : this.name;
+    return TokenKind.EOL.equals(this.tokenKind) ? "\\n" : getName();
   }
 
   public TokenKind getKind() {
@@ -36,7 +55,80 @@ public class Token {
   }
 
   public String getName() {
-    return name;
+    // Identifiers all share a single interned copy of their name.
+    if (TokenKind.IDENT == tokenKind || TokenKind.TYPE_IDENT == tokenKind) {
+      return Symbols.nameOf(getSymbol());
+    }
+
+    // Note that this is a no-copy for tokens that span their entire source.
+    return source.substring(start, start + length);
+  }
+
+  /**
+   * The interned symbol for this token's text.
+   *
+   * @see Symbols
+   */
+  public int getSymbol() {
+    if (symbol < 0) {
+      symbol = Symbols.intern(source, start, length);
+    }
+    return symbol;
+  }
+
+  String getSource() {
+    return source;
+  }
+
+  /**
+   * Copies a run of tokens over a source of their own, holding just the
+   * stretch of text they span, so they no longer keep the rest of the
+   * source alive. Tokens with a source of their own are kept as they are.
+   */
+  public static List<Token> compact(List<Token> tokens) {
+    String source = null;
+    int from = Integer.MAX_VALUE;
+    int to = 0;
+    for (Token token : tokens) {
+      if (token.length == token.source.length()) {
+        continue;
+      }
+      if (null == source) {
+        source = token.source;
+      }
+      if (token.source == source) {
+        from = Math.min(from, token.start);
+        to = Math.max(to, token.start + token.length);
+      }
+    }
+
+    List<Token> compacted = new ArrayList<Token>(tokens.size());
+    String span = null == source ? null : source.substring(from, to);
+    for (Token token : tokens) {
+      if (null != source && token.source == source) {
+        Token copy = new Token(span, token.start - from, token.length, token.tokenKind);
+        copy.symbol = token.symbol;
+        token = copy;
+      }
+      compacted.add(token);
+    }
+    return compacted;
+  }
+
+  public int getStart() {
+    return start;
+  }
+
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * Returns true if this token immediately follows the given one in the
+   * same source text, i.e. there is no whitespace between them.
+   */
+  boolean follows(Token token) {
+    return source == token.source && start == token.start + token.length;
   }
 
   public int getBalancingTokenIndex() {
@@ -74,7 +166,7 @@ public class Token {
           || TokenKind.GROUPING_RPAREN.equals(tokenKind);
   }
 
-  // Optimize, these don't need to be null-safe
+  // Compares token text in place, without materializing either name.
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
@@ -82,17 +174,20 @@ public class Token {
 
     Token token = (Token) o;
 
-    if (name != null ? !name.equals(token.name) : token.name != null) return false;
     if (tokenKind != token.tokenKind) return false;
+    if (length != token.length) return false;
 
-    return true;
+    return source.regionMatches(start, token.source, token.start, length);
   }
 
   @Override
   public int hashCode() {
-    int result = name != null ? name.hashCode() : 0;
+    // Same as getName().hashCode(), but computed in place.
+    int result = 0;
+    for (int i = start, end = start + length; i < end; i++) {
+      result = 31 * result + source.charAt(i);
+    }
     result = 31 * result + (tokenKind != null ? tokenKind.hashCode() : 0);
-    result = 31 * result + balancingTokenIndex;
     return result;
   }
 
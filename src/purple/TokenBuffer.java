@@ -0,0 +1,426 @@
+package purple;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A token stream stored as parallel primitive arrays (kinds, offsets,
+ * lengths and balancing indices) rather than as a list of individual
+ * Token objects. Lookahead heavy passes, like the reducer, scan these
+ * arrays instead of chasing pointers, and test kinds by ordinal.
+ *
+ * Like {@link Token}, the buffer holds no text of its own, just windows
+ * into the shared source. Tokens that have no text in the source (ones
+ * inserted by the reducer) are either given their kind's canonical
+ * spelling, or kept in a side table of detached strings.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public class TokenBuffer {
+  private static final TokenKind[] KINDS = TokenKind.values();
+  private static final int DEFAULT_CAPACITY = 64;
+
+  /**
+   * Offset marker for tokens spelled as their kind's canonical text.
+   * Offsets below this index into the detached strings table.
+   */
+  static final int SYNTHETIC = -1;
+  private static final String[] spellings = new String[KINDS.length];
+
+  static {
+    spellings[TokenKind.DOT.ordinal()] = ".";
+    spellings[TokenKind.COMMA.ordinal()] = ",";
+    spellings[TokenKind.COLON.ordinal()] = ":";
+    spellings[TokenKind.LPAREN.ordinal()] = "(";
+    spellings[TokenKind.RPAREN.ordinal()] = ")";
+    spellings[TokenKind.GROUPING_LPAREN.ordinal()] = "(";
+    spellings[TokenKind.GROUPING_RPAREN.ordinal()] = ")";
+    spellings[TokenKind.LBRACE.ordinal()] = "{";
+    spellings[TokenKind.RBRACE.ordinal()] = "}";
+    spellings[TokenKind.LBRACKET.ordinal()] = "[";
+    spellings[TokenKind.RBRACKET.ordinal()] = "]";
+    spellings[TokenKind.EOL.ordinal()] = "\n";
+  }
+
+  /**
+   * The canonical text of tokens of the given kind, or null if
+   * tokens of that kind may be spelled in more than one way.
+   */
+  static String spellingOf(TokenKind kind) {
+    return spellings[kind.ordinal()];
+  }
+
+  private final String source;
+  private final List<String> detached;
+
+  private byte[] kinds;
+  private int[] starts;
+  private int[] lengths;
+  private int[] balancing;
+  private int size;
+
+  public TokenBuffer(String source) {
+    this(source, DEFAULT_CAPACITY);
+  }
+
+  public TokenBuffer(String source, int capacity) {
+    this(source, new ArrayList<String>(), capacity);
+  }
+
+  private TokenBuffer(String source, List<String> detached, int capacity) {
+    this.source = source;
+    this.detached = detached;
+
+    capacity = Math.max(capacity, 1);
+    this.kinds = new byte[capacity];
+    this.starts = new int[capacity];
+    this.lengths = new int[capacity];
+  }
+
+  /**
+   * Copies a list of tokens into a buffer. Tokens that aren't backed by
+   * a common source are stored as detached text.
+   */
+  public static TokenBuffer of(List<Token> tokens) {
+    String source = tokens.isEmpty() ? "" : tokens.get(0).getSource();
+    TokenBuffer buffer = new TokenBuffer(source, tokens.size());
+    for (Token token : tokens) {
+      buffer.add(token);
+    }
+    return buffer;
+  }
+
+  /**
+   * Returns a new, empty buffer over the same source (and detached text)
+   * as this one, so tokens can be copied across without their text.
+   */
+  public TokenBuffer derive(int capacity) {
+    return new TokenBuffer(source, detached, capacity);
+  }
+
+  public String getSource() {
+    return source;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public void add(TokenKind kind, int start, int length) {
+    if (size == kinds.length) {
+      grow();
+    }
+    kinds[size] = (byte) kind.ordinal();
+    starts[size] = start;
+    lengths[size] = length;
+    size++;
+    balancing = null;
+  }
+
+  /**
+   * Adds a token that is spelled as its kind's canonical text,
+   * i.e. a '(' that is not actually present in the source.
+   */
+  public void add(TokenKind kind) {
+    if (null == spellings[kind.ordinal()]) {
+      throw new IllegalArgumentException("No canonical spelling for " + kind);
+    }
+    add(kind, SYNTHETIC, 1);
+  }
+
+  /**
+   * Adds a token whose text does not appear in the source.
+   */
+  public void add(TokenKind kind, String text) {
+    add(kind, detach(text), text.length());
+  }
+
+  public void add(Token token) {
+    if (token.getSource() == source) {
+      add(token.getKind(), token.getStart(), token.getLength());
+    } else {
+      add(token.getKind(), token.getName());
+    }
+  }
+
+  /**
+   * Copies the token at the given index of another buffer over the same
+   * source (see {@link #derive(int)}) into this one.
+   */
+  public void add(TokenBuffer buffer, int index) {
+    add(KINDS[buffer.kinds[index]], buffer.starts[index], buffer.lengths[index]);
+  }
+
+  /**
+   * Appends all the tokens of another buffer over the same source.
+   */
+  public void addAll(TokenBuffer buffer) {
+    int total = size + buffer.size;
+    while (kinds.length < total) {
+      grow();
+    }
+    System.arraycopy(buffer.kinds, 0, kinds, size, buffer.size);
+    System.arraycopy(buffer.starts, 0, starts, size, buffer.size);
+    System.arraycopy(buffer.lengths, 0, lengths, size, buffer.size);
+    size = total;
+    balancing = null;
+  }
+
+  /**
+   * Appends tokens [from, to) of a raw token stream (one with no synthetic
+   * or detached tokens) over an earlier version of this buffer's source,
+   * moving each along by the given shift.
+   */
+  void addRange(TokenBuffer buffer, int from, int to, int shift) {
+    int count = to - from;
+    int total = size + count;
+    while (kinds.length < total) {
+      grow();
+    }
+    System.arraycopy(buffer.kinds, from, kinds, size, count);
+    System.arraycopy(buffer.lengths, from, lengths, size, count);
+    for (int i = 0; i < count; i++) {
+      int start = buffer.starts[from + i];
+      if (start < 0) {
+        throw new IllegalArgumentException("Not a raw token stream, token " + (from + i)
+            + " has no source text");
+      }
+      starts[size + i] = start + shift;
+    }
+    size = total;
+    balancing = null;
+  }
+
+  public TokenKind kind(int index) {
+    return KINDS[kinds[index]];
+  }
+
+  public boolean is(int index, TokenKind kind) {
+    return index < size && kinds[index] == kind.ordinal();
+  }
+
+  /**
+   * Returns true if the tokens immediately following the given index
+   * are of the given kinds, in order.
+   */
+  public boolean isNext(int index, TokenKind... kinds) {
+    for (TokenKind kind : kinds) {
+      index++;
+      if (!is(index, kind)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public int start(int index) {
+    return starts[index];
+  }
+
+  public int length(int index) {
+    return lengths[index];
+  }
+
+  /**
+   * Returns true if the token at the given index was written immediately
+   * after the previous one in the source, with no whitespace between them.
+   */
+  public boolean isAdjacent(int index) {
+    return index > 0
+        && starts[index] >= 0
+        && starts[index - 1] >= 0
+        && starts[index] == starts[index - 1] + lengths[index - 1];
+  }
+
+  public String name(int index) {
+    return name(KINDS[kinds[index]], starts[index], lengths[index]);
+  }
+
+  /**
+   * The text of a token that's not (yet) in this buffer, but is over
+   * the same source.
+   */
+  String name(TokenKind kind, int start, int length) {
+    if (start >= 0) {
+      return source.substring(start, start + length);
+    } else if (start == SYNTHETIC) {
+      return spellings[kind.ordinal()];
+    }
+    return detached.get(SYNTHETIC - start - 1);
+  }
+
+  /**
+   * Stores text that does not appear in the source, returning the offset
+   * to add a token over it with.
+   */
+  int detach(String text) {
+    detached.add(text);
+    return SYNTHETIC - detached.size();
+  }
+
+  /**
+   * Materializes the token at the given index.
+   */
+  public Token get(int index) {
+    Token token = token(KINDS[kinds[index]], starts[index], lengths[index]);
+
+    if (null != balancing) {
+      token.setBalancingTokenIndex(balancing[index]);
+    }
+    return token;
+  }
+
+  /**
+   * Materializes a token that's not (yet) in this buffer, but is over
+   * the same source.
+   */
+  Token token(TokenKind kind, int start, int length) {
+    return (start >= 0)
+        ? new Token(source, start, length, kind)
+        : new Token(name(kind, start, length), kind);
+  }
+
+  /**
+   * Empties the buffer, keeping its capacity.
+   */
+  void clear() {
+    size = 0;
+    balancing = null;
+  }
+
+  public List<Token> toList() {
+    List<Token> tokens = new ArrayList<Token>(size);
+    for (int i = 0; i < size; i++) {
+      tokens.add(get(i));
+    }
+    return tokens;
+  }
+
+  /**
+   * Index of the token that balances the given brace, paren or bracket,
+   * or -1 if it is unbalanced (or not a balancer at all).
+   */
+  public int balancingIndex(int index) {
+    if (null == balancing) {
+      balance();
+    }
+    return balancing[index];
+  }
+
+  /**
+   * Matches up all the balancers in the buffer, in a single pass.
+   */
+  void balance() {
+    balancing = new int[kinds.length];
+    Balancer balancer = new Balancer();
+
+    for (int i = 0; i < size; i++) {
+      balancing[i] = -1;
+      int match = balancer.accept(KINDS[kinds[i]], i);
+      if (match >= 0) {
+        balancing[match] = i;
+        balancing[i] = match;
+      }
+    }
+  }
+
+  static TokenKind closerOf(TokenKind kind) {
+    switch (kind) {
+      case LPAREN: return TokenKind.RPAREN;
+      case LBRACE: return TokenKind.RBRACE;
+      case LBRACKET: return TokenKind.RBRACKET;
+      case GROUPING_LPAREN: return TokenKind.GROUPING_RPAREN;
+      default: return null;
+    }
+  }
+
+  static TokenKind openerOf(TokenKind kind) {
+    switch (kind) {
+      case RPAREN: return TokenKind.LPAREN;
+      case RBRACE: return TokenKind.LBRACE;
+      case RBRACKET: return TokenKind.LBRACKET;
+      case GROUPING_RPAREN: return TokenKind.GROUPING_LPAREN;
+      default: return null;
+    }
+  }
+
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  private void grow() {
+    int capacity = kinds.length * 2;
+    byte[] grown = new byte[capacity];
+    System.arraycopy(kinds, 0, grown, 0, size);
+    kinds = grown;
+    starts = copyOf(starts, capacity);
+    lengths = copyOf(lengths, capacity);
+    balancing = null;
+  }
+
+  private static int[] copyOf(int[] array, int capacity) {
+    int[] grown = new int[capacity];
+    System.arraycopy(array, 0, grown, 0, Math.min(array.length, capacity));
+    return grown;
+  }
+
+  /**
+   * A forward moving position in the buffer, with lookahead.
+   */
+  public final class Cursor {
+    private int position;
+
+    public int position() {
+      return position;
+    }
+
+    public void seek(int position) {
+      this.position = position;
+    }
+
+    public boolean hasMore() {
+      return position < size;
+    }
+
+    public void advance() {
+      position++;
+    }
+
+    public void advance(int distance) {
+      position += distance;
+    }
+
+    public TokenKind kind() {
+      return KINDS[kinds[position]];
+    }
+
+    public boolean is(TokenKind kind) {
+      return TokenBuffer.this.is(position, kind);
+    }
+
+    /**
+     * The kind of the token the given distance ahead, or null if
+     * that is past the end of the buffer.
+     */
+    public TokenKind peek(int distance) {
+      int index = position + distance;
+      return index < size ? KINDS[kinds[index]] : null;
+    }
+
+    public boolean isNext(TokenKind... kinds) {
+      return TokenBuffer.this.isNext(position, kinds);
+    }
+
+    public String name() {
+      return TokenBuffer.this.name(position);
+    }
+
+    public Token token() {
+      return get(position);
+    }
+
+    public int balancingIndex() {
+      return TokenBuffer.this.balancingIndex(position);
+    }
+  }
+}
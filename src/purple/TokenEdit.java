@@ -0,0 +1,65 @@
+package purple;
+
+import java.util.List;
+
+/**
+ * The result of relexing a raw token stream after an edit to its source
+ * (see {@link Tokenizer#relex}). Tokens [from, newTo) of the new stream
+ * replace tokens [from, oldTo) of the old one, everything else is the
+ * same (though tokens after the edit are shifted by its length).
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public class TokenEdit {
+  private final TokenBuffer tokens;
+  private final int from;
+  private final int oldTo;
+  private final int newTo;
+
+  TokenEdit(TokenBuffer tokens, int from, int oldTo, int newTo) {
+    this.tokens = tokens;
+    this.from = from;
+    this.oldTo = oldTo;
+    this.newTo = newTo;
+  }
+
+  /**
+   * The updated raw token stream, over the edited source.
+   */
+  public TokenBuffer getTokens() {
+    return tokens;
+  }
+
+  public String getSource() {
+    return tokens.getSource();
+  }
+
+  /**
+   * Index of the first token that was relexed, in both streams.
+   */
+  public int getFrom() {
+    return from;
+  }
+
+  /**
+   * End (exclusive) of the replaced tokens, in the old stream.
+   */
+  public int getOldTo() {
+    return oldTo;
+  }
+
+  /**
+   * End (exclusive) of the replacement tokens, in the new stream.
+   */
+  public int getNewTo() {
+    return newTo;
+  }
+
+  /**
+   * Reduces the updated stream, same as {@link Tokenizer#tokenize()}
+   * would for the edited source.
+   */
+  public List<Token> tokenize() {
+    return new BetterReducer(tokens).reduceTokenStream();
+  }
+}
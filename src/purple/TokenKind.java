@@ -29,22 +29,25 @@ public enum TokenKind {
   CLASS;
 
   public static TokenKind resolve(String st) {
-    TokenKind tokenKind = Keywords.get(st);
+    return resolve(st, 0, st.length());
+  }
+
+  /**
+   * Same as {@link #resolve(String)} but for a token that is a region
+   * of a larger source string. Does not copy the region out.
+   */
+  public static TokenKind resolve(String source, int start, int length) {
+    // Keywords and operators.
+    TokenKind tokenKind = Keywords.get(source, start, length);
     if (null != tokenKind) {
       return tokenKind;
     }
 
     // Add other resolutions here.
-    // TODO chance for optimization/interning
-    if ("->".equals(st)) {
-      return THIN_ARROW;
-    } else if ("=>".equals(st)) {
-      return FAT_ARROW;
-    }
 
     // Only type names are allowed to begin with upper case.
-    if (Character.isUpperCase(st.charAt(0))) {
-      return TYPE_IDENT; 
+    if (Character.isUpperCase(source.charAt(start))) {
+      return TYPE_IDENT;
     }
 
     // TODO validate ident or return null
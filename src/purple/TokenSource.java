@@ -0,0 +1,170 @@
+package purple;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A reduced token stream that is read by index, but only produced as far
+ * as it has been read. Backed by the lexer and reducer stages (see
+ * {@link Tokenizer#stream()}), so a parser that only needs the start of a
+ * script never lexes the rest of it.
+ *
+ * Braces and parens are matched up as tokens are pulled, so the parser
+ * can jump from one straight to its balancing token.
+ *
+ * A streamed source can also let go of the tokens behind the parser (see
+ * {@link #discard(int)}), so it need never hold more than the tokens of
+ * the statement being parsed.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public class TokenSource {
+  private final BetterReducer.Stage stage;
+  private final List<Token> tokens;
+  private int size;   // number of tokens pulled so far
+  private int base;   // index of the first token still held
+
+  private final Balancer balancer = new Balancer();
+  private int[] balancing = new int[64];
+
+  TokenSource(BetterReducer.Stage stage) {
+    this.stage = stage;
+    this.tokens = new ArrayList<Token>();
+  }
+
+  TokenSource(List<Token> tokens) {
+    this.stage = null;
+    this.tokens = tokens;
+  }
+
+  /**
+   * A source over an already reduced token stream.
+   */
+  public static TokenSource of(List<Token> tokens) {
+    return new TokenSource(tokens);
+  }
+
+  /**
+   * Returns true if the stream has a token at the given index, pulling
+   * it through the lexer and reducer if necessary.
+   */
+  public boolean has(int index) {
+    while (size <= index && pull()) {
+      // keep pulling
+    }
+    return index >= 0 && index < size;
+  }
+
+  /**
+   * The token at the given index, or null if the stream ends before it.
+   */
+  public Token get(int index) {
+    return has(index) ? tokens.get(index - base) : null;
+  }
+
+  /**
+   * Lets go of the tokens before the given index, which may not be read
+   * again. Only a streamed source actually drops them, a source over a
+   * list leaves the list as it is.
+   */
+  public void discard(int index) {
+    int end = Math.min(index, size);
+    int count = end - base;
+    if (null == stage || count <= 0) {
+      return;
+    }
+
+    tokens.subList(0, count).clear();
+    System.arraycopy(balancing, count, balancing, 0, size - end);
+    base = end;
+  }
+
+  /**
+   * Number of tokens currently held.
+   */
+  int retained() {
+    return size - base;
+  }
+
+  /**
+   * Reads the stream to its end, returning the number of tokens in it.
+   * Reading a source that has been read to its end changes nothing, so
+   * from then on it may be shared between threads.
+   */
+  public int size() {
+    while (pull()) {
+      // keep pulling
+    }
+    return size;
+  }
+
+  /**
+   * Index of the token that balances the brace, paren or bracket at the
+   * given index, or -1 if it is unbalanced (or not a balancer at all).
+   * Only reads as far ahead as the balancing token.
+   */
+  public int balancingIndex(int index) {
+    if (!has(index)) {
+      return -1;
+    }
+
+    // Openers aren't matched until their closer has been pulled.
+    int slot = index - base;
+    if (null != TokenBuffer.closerOf(tokens.get(slot).getKind())) {
+      while (balancing[slot] < 0 && pull()) {
+        // keep pulling
+      }
+    }
+    return balancing[slot];
+  }
+
+  private boolean pull() {
+    Token token;
+    if (null != stage) {
+      if (!stage.has(0)) {
+        return false;
+      }
+      token = stage.token(0);
+      stage.take(1);
+      tokens.add(token);
+    } else {
+      if (size == tokens.size()) {
+        return false;
+      }
+      token = tokens.get(size);
+    }
+
+    int index = size++;
+    int slot = index - base;
+    if (slot == balancing.length) {
+      int[] grown = new int[slot * 2];
+      System.arraycopy(balancing, 0, grown, 0, slot);
+      balancing = grown;
+    }
+    balancing[slot] = -1;
+
+    // Tokens of a list belong to the caller (and may well be shared with
+    // other sources over other views of it), so are left as they are.
+    boolean owned = null != stage;
+    if (owned) {
+      token.setBalancingTokenIndex(-1);
+    }
+
+    int match = balancer.accept(token.getKind(), index);
+    if (match >= 0) {
+      balancing[slot] = match;
+      if (owned) {
+        token.setBalancingTokenIndex(match);
+      }
+
+      // Unless the opener has been discarded already.
+      if (match >= base) {
+        balancing[match - base] = index;
+        if (owned) {
+          tokens.get(match - base).setBalancingTokenIndex(index);
+        }
+      }
+    }
+    return true;
+  }
+}
@@ -3,6 +3,9 @@ package purple;
 import purple.syntax.PurpleGrammarException;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * The language architecture works like this:
@@ -33,123 +36,409 @@ public class Tokenizer {
     this.expr = expression.toCharArray();
   }
 
+  /**
+   * Character classes, looked up per char from a table (for ASCII)
+   * rather than testing each char against a map of boxed Characters.
+   */
+  static final byte OTHER = 0;
+  static final byte WHITESPACE = 1;
+  static final byte DIGIT = 2;
+  static final byte SINGLE_CHAR_TOKEN = 3;
+
+  private static final int ASCII = 128;
+  private static final byte[] charClasses = new byte[ASCII];
+
   /**
    * These are tokens that are of a single character's width.
    */
-  private static final Map<Character, TokenKind> charTokenKinds;
+  private static final TokenKind[] charTokenKinds = new TokenKind[ASCII];
 
   static {
-    charTokenKinds = new HashMap<Character, TokenKind>();
-    charTokenKinds.put('.', TokenKind.DOT);
-    charTokenKinds.put(',', TokenKind.COMMA);
-    charTokenKinds.put(':', TokenKind.COLON);
-    charTokenKinds.put('(', TokenKind.LPAREN);
-    charTokenKinds.put(')', TokenKind.RPAREN);
-    charTokenKinds.put('{', TokenKind.LBRACE);
-    charTokenKinds.put('}', TokenKind.RBRACE);
-    charTokenKinds.put('[', TokenKind.LBRACKET);
-    charTokenKinds.put(']', TokenKind.RBRACKET);
-  }
-
-  // parser state machine
-  private boolean inToken;
-  private boolean isNumeric;
-  private List<Token> tokens = new ArrayList<Token>();
+    for (char c = 0; c < ASCII; c++) {
+      if (Character.isWhitespace(c)) {
+        charClasses[c] = WHITESPACE;
+      } else if (Character.isDigit(c)) {
+        charClasses[c] = DIGIT;
+      }
+    }
+
+    charTokenKind('.', TokenKind.DOT);
+    charTokenKind(',', TokenKind.COMMA);
+    charTokenKind(':', TokenKind.COLON);
+    charTokenKind('(', TokenKind.LPAREN);
+    charTokenKind(')', TokenKind.RPAREN);
+    charTokenKind('{', TokenKind.LBRACE);
+    charTokenKind('}', TokenKind.RBRACE);
+    charTokenKind('[', TokenKind.LBRACKET);
+    charTokenKind(']', TokenKind.RBRACKET);
+  }
+
+  private static void charTokenKind(char c, TokenKind kind) {
+    charClasses[c] = SINGLE_CHAR_TOKEN;
+    charTokenKinds[c] = kind;
+  }
+
+  /**
+   * Classifies a single character. ASCII is answered straight from the table,
+   * anything else falls back to the (slower) unicode-aware checks.
+   */
+  static byte classOf(char c) {
+    if (c < ASCII) {
+      return charClasses[c];
+    }
+
+    if (Character.isWhitespace(c)) {
+      return WHITESPACE;
+    } else if (Character.isDigit(c)) {
+      return DIGIT;
+    }
+    return OTHER;
+  }
+
+  static TokenKind charTokenKind(char c) {
+    return charTokenKinds[c];
+  }
 
   public List<Token> tokenize() {
-    inToken = !Character.isWhitespace(expr[0]);
-    isNumeric = true;
-    int inParen = 0;
+    // Reduce token stream (optimizes tokens into more significant types)
+    return new BetterReducer(lex()).reduceTokenStream();
+  }
+
+  /**
+   * Same as {@link #tokenize()}, but lexes and reduces the source lazily,
+   * only as far as tokens are read from the returned source.
+   */
+  public TokenSource stream() {
+    return new TokenSource(BetterReducer.reduce(new LineLexer(), true));
+  }
+
+  /**
+   * Same as {@link #tokenize()}, but leaves infix calls as they are
+   * written, i.e. x + y rather than x.+(y), for the expression parser.
+   *
+   * @see purple.syntax.ExpressionParser
+   */
+  public List<Token> tokenizeInfix() {
+    return new BetterReducer(lex(), false).reduceTokenStream();
+  }
+
+  /**
+   * Same as {@link #stream()}, but leaves infix calls as they are written.
+   */
+  public TokenSource streamInfix() {
+    return new TokenSource(BetterReducer.reduce(new LineLexer(), false));
+  }
+
+  /**
+   * Same as {@link #tokenize()}, but lexes large sources in parallel.
+   */
+  public List<Token> tokenize(ForkJoinPool pool) {
+    return new BetterReducer(lex(pool)).reduceTokenStream();
+  }
+
+  /**
+   * Lexes the source into a raw (i.e. unreduced) token stream.
+   */
+  public TokenBuffer lex() {
+    // Rough guess, saves regrowing the buffer a few times.
+    TokenBuffer tokens = new TokenBuffer(expression, expr.length / 4);
+    lex(0, expr.length, 0, tokens);
+    return tokens;
+  }
+
+  /**
+   * Updates a raw token stream (as produced by {@link #lex()}) for an edit
+   * to its source, where the removed chars at offset are replaced with the
+   * inserted text. Only the tokens around the edit are relexed. As soon as
+   * the lexer is back in step with the old stream (at the same token, with
+   * the same parens open) the rest of the old stream is reused, shifted
+   * along by the change in length.
+   */
+  public static TokenEdit relex(TokenBuffer previous, int offset, int removed, String inserted) {
+    String old = previous.getSource();
+    if (offset < 0 || removed < 0 || offset + removed > old.length()) {
+      throw new IllegalArgumentException("Edit [" + offset + ", " + (offset + removed)
+          + ") is out of range of source of length " + old.length());
+    }
+
+    String source = old.substring(0, offset) + inserted + old.substring(offset + removed);
+    int delta = inserted.length() - removed;
+    return new Tokenizer(source).relex(previous, offset, offset + removed, delta);
+  }
+
+  private TokenEdit relex(TokenBuffer previous, int offset, int oldEnd, int delta) {
+    int size = previous.size();
+    TokenBuffer tokens = new TokenBuffer(expression, size + Math.max(delta, 0) / 4);
+
+    // Keep every token that ends before the edit. Anything touching it
+    // may run on into the edited text, so restart lexing from there.
+    int depth = 0;
+    int from = 0;
+    while (from < size && previous.start(from) + previous.length(from) < offset) {
+      depth += depthChange(previous.kind(from));
+      from++;
+    }
+    tokens.addRange(previous, 0, from, 0);
+
+    int position = offset;
+    if (from < size) {
+      position = Math.min(position, previous.start(from));
+    }
+
+    // Find the first old token after the edit where we can pick up the
+    // old stream again. The lexer must be between tokens there (i.e. no
+    // ident running across it) and have the same parens open.
+    int oldDepth = depth;
+    for (int j = from; j < size; j++) {
+      int start = previous.start(j);
+      if (start >= oldEnd) {
+        int resume = start + delta;
+        if (resume >= position && isBoundary(resume, previous.kind(j))) {
+          depth = lex(position, resume, depth, tokens);
+          position = resume;
+
+          if (depth == oldDepth) {
+            int newTo = tokens.size();
+            tokens.addRange(previous, j, size, delta);
+            return new TokenEdit(tokens, from, j, newTo);
+          }
+        }
+      }
+      oldDepth += depthChange(previous.kind(j));
+    }
 
-    StringBuilder token = new StringBuilder();
+    // Never got back in step, the rest of the source is all new.
+    lex(position, expr.length, depth, tokens);
+    return new TokenEdit(tokens, from, size, tokens.size());
+  }
+
+  /**
+   * A position where a token of the given kind begins is a clean place
+   * to stop and restart lexing, unless an ident runs right up to it.
+   */
+  private boolean isBoundary(int position, TokenKind kind) {
+    if (null != TokenBuffer.spellingOf(kind) || position == 0) {
+      return true;
+    }
+    byte previous = classOf(expr[position - 1]);
+    return previous == WHITESPACE || previous == SINGLE_CHAR_TOKEN;
+  }
+
+  private static int depthChange(TokenKind kind) {
+    if (kind == TokenKind.LPAREN) {
+      return 1;
+    } else if (kind == TokenKind.RPAREN) {
+      return -1;
+    }
+    return 0;
+  }
+
+  /**
+   * Lexes the source in parallel chunks on the given pool, producing
+   * exactly the same token stream as {@link #lex()}.
+   */
+  public TokenBuffer lex(ForkJoinPool pool) {
+    return lex(pool, Math.max(MIN_PARALLEL_CHUNK, expr.length / (pool.getParallelism() * 4)));
+  }
+
+  private static final int MIN_PARALLEL_CHUNK = 1 << 16;
+
+  TokenBuffer lex(ForkJoinPool pool, int chunkSize) {
+    int[] splits = findSplits(chunkSize);
+    if (splits.length == 2) {
+      return lex();
+    }
+
+    List<ForkJoinTask<TokenBuffer>> chunks = new ArrayList<ForkJoinTask<TokenBuffer>>();
+    for (int i = 0; i < splits.length - 1; i++) {
+      chunks.add(pool.submit(new LexChunk(splits[i], splits[i + 1])));
+    }
+
+    // Stitch the chunks back together in order.
+    TokenBuffer tokens = new TokenBuffer(expression, expr.length / 4);
+    for (ForkJoinTask<TokenBuffer> chunk : chunks) {
+      tokens.addAll(chunk.join());
+    }
+    return tokens;
+  }
+
+  /**
+   * Pre-scans the source for safe places to split it, roughly every
+   * chunkSize chars. A split is safe just after a newline that's not in
+   * a () group: the lexer is always between tokens there, with no parens
+   * open, which is exactly the state a fresh lex starts in.
+   *
+   * Returns the chunk boundaries, including 0 and the end of the source.
+   */
+  private int[] findSplits(int chunkSize) {
+    final char[] expr = this.expr;
+    int[] splits = new int[expr.length / chunkSize + 2];
+    int count = 1;
+
+    int inParen = 0;
+    int next = chunkSize;
     for (int i = 0; i < expr.length; i++) {
       char c = expr[i];
-
-      // This helps us skip newlines in () groups.
-      // TODO(dhanji): watch out for string and regex literals
       if ('(' == c) {
         inParen++;
       } else if (')' == c) {
         inParen--;
+      } else if ('\n' == c && inParen == 0 && i >= next && i + 1 < expr.length) {
+        splits[count++] = i + 1;
+        next = i + 1 + chunkSize;
       }
+    }
+    splits[count++] = expr.length;
 
-      // Add EOLs (and see if the world asplodes)
-      if ('\n' == c && inParen == 0) {
-        tokens.add(new Token("\n", TokenKind.EOL));
-      }
+    int[] trimmed = new int[count];
+    System.arraycopy(splits, 0, trimmed, 0, count);
+    return trimmed;
+  }
 
-      // Whitespace handler
-      if (Character.isWhitespace(c)) {
+  @SuppressWarnings("serial") // never serialized
+  private class LexChunk extends RecursiveTask<TokenBuffer> {
+    private final int from;
+    private final int to;
 
-        // end of token?
-        if (inToken) {
-          token = bakeToken(token);
-        }
-        
-        continue;
-      }
-      
-      // dot and comma separators
-      if (charTokenKinds.containsKey(c)) {
+    private LexChunk(int from, int to) {
+      this.from = from;
+      this.to = to;
+    }
 
-        if (token.length() > 0)
-          token = bakeToken(token);
+    @Override
+    protected TokenBuffer compute() {
+      TokenBuffer tokens = new TokenBuffer(expression, (to - from) / 4);
+      lex(from, to, 0, tokens);
+      return tokens;
+    }
+  }
 
-        //add period as token too.
-        tokens.add(new Token(Character.toString(c), charTokenKinds.get(c)));
+  /**
+   * Lexes the source a line at a time, as tokens are pulled from it. Just
+   * after a newline the lexer is always between tokens, so each line can
+   * be lexed on its own, carrying over only the number of open parens.
+   */
+  private class LineLexer extends BetterReducer.Stage {
+    private final TokenBuffer line = new TokenBuffer(expression);
+    private int position;
+    private int inParen;
 
-        continue;
-      }
+    private LineLexer() {
+      super(new TokenBuffer(expression, 1));
+    }
 
+    @Override
+    boolean step() {
+      if (position == expr.length) {
+        return false;
+      }
 
-      // Decide if the current token we're looking at is not a pure integer
-      if (!Character.isDigit(c)) {
-        isNumeric = false;
+      int end = position;
+      while (end < expr.length && '\n' != expr[end++]) {
+        // seek to the end of the line
       }
 
-      inToken = true;
-      token.append(c);
+      line.clear();
+      inParen = lex(position, end, inParen, line);
+      position = end;
+
+      for (int i = 0; i < line.size(); i++) {
+        emit(line.kind(i), line.start(i), line.length(i));
+      }
+      return true;
     }
+  }
 
-    // last token.
-    //noinspection UnusedAssignment
-    token = bakeToken(token);
+  /**
+   * Lexes the given range of the source into the given buffer, starting
+   * from a clean state (i.e. between tokens) with the given number of
+   * parens open. Returns the number of parens open at the end.
+   *
+   * Unlike the {@link MappedTokenizer}, this classifies one char at a time
+   * rather than scanning a word at a time with the DelimiterScanner: a
+   * char[] can't be read as longs, and packing four chars into one costs
+   * more (2-4x, measured) than the table lookup it would save.
+   */
+  private int lex(int from, int to, int inParen, TokenBuffer tokens) {
+    final char[] expr = this.expr;
+    int tokenStart = -1;   // start of the token we're in, if any
+    boolean isNumeric = true;
 
-    // Reduce token stream (optimizes tokens into more significant types)
-    tokens = new BetterReducer(tokens).reduceTokenStream();
+    for (int i = from; i < to; i++) {
+      char c = expr[i];
 
-    return tokens;
-  }
+      switch (classOf(c)) {
+        case WHITESPACE:
+          // end of token?
+          if (tokenStart >= 0) {
+            bakeToken(tokens, tokenStart, i, isNumeric);
+            tokenStart = -1;
+            isNumeric = true;
+          }
 
+          // Add EOLs, but skip newlines in () groups.
+          // TODO(dhanji): watch out for string and regex literals
+          if ('\n' == c && inParen == 0) {
+            tokens.add(TokenKind.EOL, i, 1);
+          }
+          break;
 
-  private StringBuilder bakeToken(StringBuilder token) {
-    // short circuit zero-length tokens.
-    if (token.length() == 0)
-      return null;
+        case SINGLE_CHAR_TOKEN:
+          if (tokenStart >= 0) {
+            bakeToken(tokens, tokenStart, i, isNumeric);
+            tokenStart = -1;
+            isNumeric = true;
+          }
 
-    process(token.toString());
+          if ('(' == c) {
+            inParen++;
+          } else if (')' == c) {
+            inParen--;
+          }
 
-    token = new StringBuilder();
-    inToken = false;
-    isNumeric = true;
-    return token;
+          // add separator as token too.
+          tokens.add(charTokenKinds[c], i, 1);
+          break;
+
+        case DIGIT:
+          if (tokenStart < 0) {
+            tokenStart = i;
+          }
+          break;
+
+        default:
+          // the current token we're looking at is not a pure integer
+          if (tokenStart < 0) {
+            tokenStart = i;
+          }
+          isNumeric = false;
+      }
+    }
+
+    // last token.
+    if (tokenStart >= 0) {
+      bakeToken(tokens, tokenStart, to, isNumeric);
+    }
+    return inParen;
   }
 
-  private void process(String stringToken) {
+  private void bakeToken(TokenBuffer tokens, int start, int end, boolean isNumeric) {
     // Do something with this token. Decide if it is an identifier or not.
     TokenKind tokenKind;
 
     if (isNumeric) {
       tokenKind = TokenKind.INTEGER;
     } else {
-      tokenKind = TokenKind.resolve(stringToken);
+      tokenKind = TokenKind.resolve(expression, start, end - start);
     }
 
     if (null == tokenKind) {
       // add compiler error.
-      throw new PurpleGrammarException("compile error, unrecognized symbol: " + stringToken);
+      throw new PurpleGrammarException("compile error, unrecognized symbol: "
+          + expression.substring(start, end));
     }
 
-    tokens.add(new Token(stringToken, tokenKind));
+    // Tokens are just a window into the source, no copying.
+    tokens.add(tokenKind, start, end - start);
   }
 }
@@ -2,6 +2,9 @@ package purple.interpret;
 
 import purple.syntax.Parser;
 import purple.Tokenizer;
+import purple.syntax.model.NodePrinter;
+
+import java.io.IOException;
 
 /**
  * @author Dhanji R. Prasanna (dhanji@gmail com)
@@ -9,8 +12,16 @@ import purple.Tokenizer;
 public class Interpreter {
 
   public String interpret(String expression) {
-    return new Parser(new Tokenizer(expression).tokenize())
-        .parse().toString();
+    return new NodePrinter().print(new Parser(new Tokenizer(expression).tokenize())
+        .parse());
 //        .evaluate();
   }
+
+  /**
+   * Same as {@link #interpret(String)}, but writes the result out as it
+   * goes rather than building it up as a string first.
+   */
+  public void interpret(String expression, Appendable out) throws IOException {
+    new NodePrinter().print(new Parser(new Tokenizer(expression).tokenize()).parse(), out);
+  }
 }
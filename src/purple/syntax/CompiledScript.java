@@ -0,0 +1,472 @@
+package purple.syntax;
+
+import purple.Symbols;
+import purple.syntax.model.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A parsed script in a compact binary form, read in place from a memory
+ * mapped file. The format is the {@link SyntaxTree}'s own parallel arrays,
+ * written out as they are, so opening one decodes nothing; nodes (and
+ * their names) are read from the mapping as they are asked for, and each
+ * top-level unit can be materialized as {@link SyntaxNode}s on its own.
+ *
+ * The layout, in big-endian order and with each array aligned to its
+ * element size, is:
+ * <pre>
+ *   int magic, int version
+ *   int names, then each name as a short length and UTF-8 bytes
+ *   int units, int nodes, int constants
+ *   int[units] roots
+ *   byte[nodes] kinds
+ *   int[nodes] first children, int[nodes] next siblings, int[nodes] payloads
+ *   long[constants] constants
+ * </pre>
+ * Names are numbered by the file, not by {@link Symbols}, whose symbols
+ * differ from one VM to the next. A payload is a name, an int literal, or
+ * a constant (a decimal's bits, or an argument or field's name and type).
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public class CompiledScript {
+  static final int MAGIC = 0x50524c54;     // PRLT
+  static final int VERSION = 2;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final SyntaxTree.Kind[] KINDS = SyntaxTree.Kind.values();
+  private static final SyntaxNode[] NO_CHILDREN = new SyntaxNode[0];
+
+  private final ByteBuffer names;
+  private final int[] nameOffsets;
+  private final int[] symbols;          // file's names -> symbols, or -1 until looked up
+  private final IntBuffer roots;
+  private final ByteBuffer kinds;
+  private final IntBuffer firstChildren;
+  private final IntBuffer nextSiblings;
+  private final IntBuffer payloads;
+  private final LongBuffer constants;
+
+  private CompiledScript(ByteBuffer buffer) {
+    check(buffer.remaining() >= 12 && buffer.getInt() == MAGIC, "Not a compiled script");
+    check(buffer.getInt() == VERSION, "Unsupported compiled script version");
+
+    // Counts are checked against what's left before anything is sized by them.
+    int nameCount = buffer.getInt();
+    check(nameCount >= 0 && nameCount <= buffer.remaining() / 2, "Corrupt compiled script");
+    nameOffsets = new int[nameCount];
+    names = buffer.slice();
+    for (int i = 0; i < nameOffsets.length; i++) {
+      nameOffsets[i] = buffer.position() - 12;
+      buffer.position(buffer.position() + 2 + (buffer.getShort(buffer.position()) & 0xFFFF));
+    }
+    symbols = new int[nameOffsets.length];
+    Arrays.fill(symbols, -1);
+    align(buffer, 4);
+
+    int units = buffer.getInt();
+    int nodes = buffer.getInt();
+    int constantCount = buffer.getInt();
+    check(units >= 0 && nodes >= 0 && constantCount >= 0
+        && (long) units * 4 + nodes * 13L + constantCount * 8L <= buffer.remaining(),
+        "Corrupt compiled script");
+    roots = slice(buffer, units * 4).asIntBuffer();
+    kinds = slice(buffer, nodes);
+    align(buffer, 4);
+    firstChildren = slice(buffer, nodes * 4).asIntBuffer();
+    nextSiblings = slice(buffer, nodes * 4).asIntBuffer();
+    payloads = slice(buffer, nodes * 4).asIntBuffer();
+    align(buffer, 8);
+    constants = slice(buffer, constantCount * 8).asLongBuffer();
+  }
+
+  /**
+   * Maps the given compiled script. Mappings stay valid after the file
+   * is closed (or even deleted).
+   */
+  public static CompiledScript open(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Reads a compiled script in place from the given buffer.
+   */
+  public static CompiledScript read(ByteBuffer buffer) {
+    try {
+      return new CompiledScript(buffer.duplicate());
+    } catch (IllegalArgumentException e) {
+      throw e;
+    } catch (RuntimeException e) {
+      // Truncated, or otherwise not what it says it is.
+      throw new IllegalArgumentException("Corrupt compiled script", e);
+    }
+  }
+
+  /**
+   * Writes the given script to a file, replacing it whole (the new file
+   * is written alongside and renamed over the old one).
+   */
+  public static void write(Script script, File file) throws IOException {
+    ByteBuffer buffer = write(script);
+    File temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+    try {
+      RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+      try {
+        FileChannel channel = raf.getChannel();
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      } finally {
+        raf.close();
+      }
+      if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+        throw new IOException("Could not replace " + file);
+      }
+    } finally {
+      temp.delete();
+    }
+  }
+
+  /**
+   * The given script in compiled form. Function bodies that have yet to
+   * be parsed are parsed to be written.
+   */
+  public static ByteBuffer write(Script script) {
+    SyntaxNode[] sequence = script.getSequence();
+    SyntaxTree tree = new SyntaxTree();
+    int[] roots = new int[sequence.length];
+    for (int i = 0; i < sequence.length; i++) {
+      roots[i] = tree.add(sequence[i]);
+    }
+
+    // Number the names used, and gather the constants, in node order.
+    Map<Integer, Integer> names = new HashMap<Integer, Integer>();
+    List<byte[]> encoded = new ArrayList<byte[]>();
+    int size = tree.size();
+    int[] payloads = new int[size];
+    long[] constants = new long[8];
+    int constantCount = 0;
+    for (int node = 0; node < size; node++) {
+      long constant;
+      switch (tree.kind(node)) {
+        case INTEGER:
+          payloads[node] = tree.intValue(node);
+          continue;
+        case DECIMAL:
+          constant = Double.doubleToRawLongBits(tree.decimalValue(node));
+          break;
+        case VARIABLE:
+        case CALL:
+        case FUNCTION_DEF:
+        case CLASS_DEF:
+          payloads[node] = name(tree.symbol(node), names, encoded);
+          continue;
+        case ARGUMENT:
+        case FIELD_DEF:
+          int type = tree.typeSymbol(node);
+          constant = ((long) name(tree.symbol(node), names, encoded) << 32)
+              | (SyntaxTree.UNTYPED == type ? 0xFFFFFFFFL : name(type, names, encoded));
+          break;
+        default:
+          continue;
+      }
+
+      if (constantCount == constants.length) {
+        long[] grown = new long[constantCount * 2];
+        System.arraycopy(constants, 0, grown, 0, constantCount);
+        constants = grown;
+      }
+      payloads[node] = constantCount;
+      constants[constantCount++] = constant;
+    }
+
+    int namesSize = 0;
+    for (byte[] name : encoded) {
+      namesSize += 2 + name.length;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(12 + namesSize + 3 + 12 + 4 * roots.length + size + 3
+        + 12 * size + 7 + 8 * constantCount);
+
+    buffer.putInt(MAGIC).putInt(VERSION).putInt(encoded.size());
+    for (byte[] name : encoded) {
+      buffer.putShort((short) name.length).put(name);
+    }
+    pad(buffer, 4);
+    buffer.putInt(roots.length).putInt(size).putInt(constantCount);
+    for (int root : roots) {
+      buffer.putInt(root);
+    }
+    for (int node = 0; node < size; node++) {
+      buffer.put((byte) tree.kind(node).ordinal());
+    }
+    pad(buffer, 4);
+    for (int node = 0; node < size; node++) {
+      buffer.putInt(tree.firstChild(node));
+    }
+    for (int node = 0; node < size; node++) {
+      buffer.putInt(tree.nextSibling(node));
+    }
+    for (int node = 0; node < size; node++) {
+      buffer.putInt(payloads[node]);
+    }
+    pad(buffer, 8);
+    for (int i = 0; i < constantCount; i++) {
+      buffer.putLong(constants[i]);
+    }
+
+    buffer.flip();
+    return buffer;
+  }
+
+  private static int name(int symbol, Map<Integer, Integer> names, List<byte[]> encoded) {
+    Integer name = names.get(symbol);
+    if (null == name) {
+      byte[] bytes = Symbols.nameOf(symbol).getBytes(UTF_8);
+      check(bytes.length <= 0xFFFF, "Name too long to compile: " + Symbols.nameOf(symbol));
+      name = encoded.size();
+      names.put(symbol, name);
+      encoded.add(bytes);
+    }
+    return name;
+  }
+
+  public int units() {
+    return roots.limit();
+  }
+
+  /**
+   * The root node of the given top-level unit.
+   */
+  public int root(int unit) {
+    return roots.get(unit);
+  }
+
+  public int size() {
+    return kinds.limit();
+  }
+
+  public SyntaxTree.Kind kind(int node) {
+    return KINDS[kinds.get(node)];
+  }
+
+  /**
+   * The node's first child, or -1 if it has none.
+   */
+  public int firstChild(int node) {
+    return firstChildren.get(node);
+  }
+
+  /**
+   * The node following this one in its parent's children, or -1 if it
+   * is the last.
+   */
+  public int nextSibling(int node) {
+    return nextSiblings.get(node);
+  }
+
+  /**
+   * The name of a variable, call, definition, argument or field.
+   */
+  public int symbol(int node) {
+    SyntaxTree.Kind kind = kind(node);
+    if (SyntaxTree.Kind.ARGUMENT == kind || SyntaxTree.Kind.FIELD_DEF == kind) {
+      return symbolOf((int) (constants.get(payloads.get(node)) >>> 32));
+    }
+    return symbolOf(payloads.get(node));
+  }
+
+  /**
+   * The declared type of an argument or field, as a symbol, or
+   * {@link SyntaxTree#UNTYPED}.
+   */
+  public int typeSymbol(int node) {
+    int name = (int) constants.get(payloads.get(node));
+    return name < 0 ? SyntaxTree.UNTYPED : symbolOf(name);
+  }
+
+  /**
+   * Names are interned the first time they're needed. Threads that race
+   * to one intern it to the same symbol.
+   */
+  private int symbolOf(int name) {
+    int symbol = symbols[name];
+    if (symbol < 0) {
+      int offset = nameOffsets[name];
+      byte[] bytes = new byte[names.getShort(offset) & 0xFFFF];
+      for (int i = 0; i < bytes.length; i++) {
+        bytes[i] = names.get(offset + 2 + i);
+      }
+      symbol = Symbols.intern(new String(bytes, UTF_8));
+      symbols[name] = symbol;
+    }
+    return symbol;
+  }
+
+  public int intValue(int node) {
+    return payloads.get(node);
+  }
+
+  public double decimalValue(int node) {
+    return Double.longBitsToDouble(constants.get(payloads.get(node)));
+  }
+
+  /**
+   * Materializes the given top-level unit, and nothing else.
+   */
+  public SyntaxNode unit(int unit) {
+    return toNode(root(unit));
+  }
+
+  public Script toScript(String name) {
+    SyntaxNode[] sequence = new SyntaxNode[units()];
+    for (int i = 0; i < sequence.length; i++) {
+      sequence[i] = unit(i);
+    }
+    return new Script(name, sequence);
+  }
+
+  /**
+   * Materializes the subtree at the given node, same as
+   * {@link SyntaxTree#toNode(int)}. Indices are checked as they are read,
+   * so a script that is corrupt past its header fails here with an
+   * {@link IllegalArgumentException}, same as one that can't be read.
+   */
+  public SyntaxNode toNode(int root) {
+    try {
+      return build(root);
+    } catch (IllegalArgumentException e) {
+      throw e;
+    } catch (RuntimeException e) {
+      // An index out of bounds, a node of the wrong kind, and the like.
+      throw new IllegalArgumentException("Corrupt compiled script", e);
+    }
+  }
+
+  private SyntaxNode build(int root) {
+    // Post-order: an expanded node is pushed as ~node. Nodes are written
+    // children first, so a node has fewer children than its index, each
+    // of them before it; checking that, the walk ends however the links
+    // are corrupted.
+    int[] pending = new int[16];
+    int pendingCount = 0;
+    SyntaxNode[] results = new SyntaxNode[16];
+    int resultCount = 0;
+    pending[pendingCount++] = root;
+
+    while (pendingCount > 0) {
+      int node = pending[--pendingCount];
+      if (node >= 0) {
+        pending = push(pending, pendingCount++, ~node);
+        int count = 0;
+        for (int child = firstChild(node); child >= 0; child = nextSibling(child)) {
+          check(child < node && ++count <= node, "Corrupt compiled script");
+          pending = push(pending, pendingCount++, child);
+        }
+        continue;
+      }
+      node = ~node;
+
+      SyntaxNode[] children = NO_CHILDREN;
+      if (firstChild(node) >= 0) {
+        int count = 0;
+        for (int child = firstChild(node); child >= 0; child = nextSibling(child)) {
+          count++;
+        }
+        children = new SyntaxNode[count];
+        for (int i = 0; i < count; i++) {
+          children[i] = results[--resultCount];
+        }
+      }
+
+      if (resultCount == results.length) {
+        SyntaxNode[] grown = new SyntaxNode[resultCount * 2];
+        System.arraycopy(results, 0, grown, 0, resultCount);
+        results = grown;
+      }
+      results[resultCount++] = materialize(node, children);
+    }
+    return results[0];
+  }
+
+  private SyntaxNode materialize(int node, SyntaxNode[] children) {
+    switch (kind(node)) {
+      case INTEGER:
+        return new IntegerLiteral(intValue(node));
+      case DECIMAL:
+        return new Decimal(decimalValue(node));
+      case VARIABLE:
+        return new Variable(symbol(node));
+      case CALL:
+        return new FunctionCall(symbol(node), children);
+      case DO_BLOCK:
+        return new DoBlock(children);
+      case FUNCTION_DEF:
+        Argument[] args = new Argument[children.length - 1];
+        System.arraycopy(children, 0, args, 0, args.length);
+        return new FunctionDef(Symbols.nameOf(symbol(node)), args, children[args.length]);
+      case ARGUMENT:
+        return new Argument(symbol(node), SyntaxTree.typeOf(typeSymbol(node)));
+      case CLASS_DEF:
+        List<FieldDef> fields = new ArrayList<FieldDef>(children.length);
+        for (SyntaxNode field : children) {
+          fields.add((FieldDef) field);
+        }
+        return Types.define(symbol(node), fields);
+      case FIELD_DEF:
+        return new FieldDef(Symbols.nameOf(symbol(node)), Types.of(typeSymbol(node)));
+      default:
+        return null;
+    }
+  }
+
+  private static int[] push(int[] stack, int count, int value) {
+    if (count == stack.length) {
+      int[] grown = new int[count * 2];
+      System.arraycopy(stack, 0, grown, 0, count);
+      stack = grown;
+    }
+    stack[count] = value;
+    return stack;
+  }
+
+  private static ByteBuffer slice(ByteBuffer buffer, int length) {
+    ByteBuffer slice = buffer.slice();
+    slice.limit(length);
+    buffer.position(buffer.position() + length);
+    return slice;
+  }
+
+  private static void align(ByteBuffer buffer, int alignment) {
+    buffer.position((buffer.position() + alignment - 1) & -alignment);
+  }
+
+  private static void pad(ByteBuffer buffer, int alignment) {
+    while ((buffer.position() & (alignment - 1)) != 0) {
+      buffer.put((byte) 0);
+    }
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new IllegalArgumentException(message);
+    }
+  }
+}
@@ -0,0 +1,327 @@
+package purple.syntax;
+
+import purple.Token;
+import purple.TokenKind;
+import purple.TokenSource;
+import purple.syntax.model.SyntaxNode;
+
+/**
+ * A top-down operator precedence (Pratt) parser for expressions. Infix
+ * function calls like x + y are parsed straight into FunctionCall nodes,
+ * binding as the {@link OperatorTable} says, so the token stream doesn't
+ * need to have been rewritten as x.+(y) by the reducer first (see
+ * {@link purple.Tokenizer#tokenizeInfix()}). Rewritten streams parse to
+ * the same trees, all the same.
+ *
+ * Any identifier following an operand is an infix call, and postfix
+ * (dot) calls bind tighter than any infix call.
+ *
+ * The parser does not recurse. Operands, pending infix calls, and open
+ * groups and argument lists are all kept on explicit stacks, which are
+ * reused from one parse to the next. So expressions may be nested (or
+ * chained) millions deep without growing the Java stack.
+ *
+ * Nodes are built straight into a {@link SyntaxTree}, operands being
+ * node indices rather than objects.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public class ExpressionParser {
+  private static final int INITIAL_DEPTH = 16;
+
+  // Kinds of open frame.
+  private static final byte GROUP = 0;
+  private static final byte CALL = 1;
+
+  private final TokenSource tokens;
+  private final OperatorTable operators;
+
+  private int position;
+  private int end;
+
+  private SyntaxTree tree;
+  private final SyntaxTree scratch = new SyntaxTree();
+
+  // Operands parsed, but not yet taken as args by a call.
+  private int[] operands = new int[INITIAL_DEPTH];
+  private int operandCount;
+
+  // Infix calls waiting on their right operand.
+  private int[] operatorSymbols = new int[INITIAL_DEPTH];
+  private int[] operatorPrecedences = new int[INITIAL_DEPTH];
+  private int operatorCount;
+
+  // Open groups and argument lists. Each frame owns the operands and
+  // operators pushed since it was opened.
+  private byte[] frameKinds = new byte[INITIAL_DEPTH];
+  private int[] frameSymbols = new int[INITIAL_DEPTH];
+  private int[] frameOperands = new int[INITIAL_DEPTH];
+  private int[] frameOperators = new int[INITIAL_DEPTH];
+  private int frameCount;
+
+  public ExpressionParser(TokenSource tokens, OperatorTable operators) {
+    this.tokens = tokens;
+    this.operators = operators;
+  }
+
+  /**
+   * Parses a single expression starting at the given index. It runs up
+   * to the end of the line, or the given end index, whichever is first.
+   */
+  public SyntaxNode parse(int start, int end) {
+    scratch.clear();
+    parse(scratch, start, end);
+    return scratch.toNode();
+  }
+
+  /**
+   * Parses a single expression into the given tree, as above, returning
+   * its node.
+   */
+  public int parse(SyntaxTree tree, int start, int end) {
+    this.tree = tree;
+    this.position = start;
+    this.end = end;
+    operandCount = 0;
+    operatorCount = 0;
+    frameCount = 0;
+
+    try {
+      int node = expression();
+      Token next = peek();
+      check(null == next || next.isEol(), "Unexpected token after expression: " + name(next));
+      return node;
+    } finally {
+      this.tree = null;
+    }
+  }
+
+  /**
+   * Index just past the last expression parsed.
+   */
+  public int position() {
+    return position;
+  }
+
+  private int expression() {
+    while (true) {
+      operand();
+
+      // Now after an operand, see what follows it.
+      boolean ended = false;
+      while (!ended) {
+        Token token = peek();
+        TokenKind kind = null == token ? null : token.getKind();
+
+        if (TokenKind.DOT == kind) {
+          position++;
+          if (postfix()) {
+            break;    // into an argument list.
+          }
+
+        } else if (TokenKind.IDENT == kind) {
+          // Infix call. First finish off the calls to our left that bind
+          // tighter, their right operand is complete.
+          position++;
+          OperatorTable.Operator operator = operators.get(token.getSymbol());
+          reduce(operator.precedence);
+          pushOperator(token.getSymbol(), operator.rightPrecedence());
+          break;
+
+        } else if (TokenKind.COMMA == kind && frameCount > 0 && frameKinds[frameCount - 1] == CALL) {
+          position++;
+          reduce(Integer.MIN_VALUE);
+          break;
+
+        } else if ((TokenKind.RPAREN == kind || TokenKind.GROUPING_RPAREN == kind) && frameCount > 0) {
+          position++;
+          close(kind);
+
+        } else {
+          ended = true;
+        }
+      }
+
+      if (ended) {
+        check(frameCount == 0, frameCount > 0 && frameKinds[frameCount - 1] == CALL
+            ? "Missing ) in parenthetical function call"
+            : "Missing ) in parenthetical expression");
+        reduce(Integer.MIN_VALUE);
+        return operands[0];
+      }
+    }
+  }
+
+  /**
+   * Parses an operand, opening any groups or calls in front of it.
+   */
+  private void operand() {
+    while (true) {
+      Token token = next();
+      check(null != token, "Expected an expression");
+
+      switch (token.getKind()) {
+        case INTEGER:
+          pushOperand(tree.integer(Integer.parseInt(token.getName())));
+          return;
+        case DECIMAL:
+          pushOperand(tree.decimal(Double.parseDouble(token.getName())));
+          return;
+
+        case LPAREN:
+        case GROUPING_LPAREN:
+          pushFrame(GROUP, -1, operandCount);
+          break;
+
+        case IDENT:
+          // Free function call.
+          if (isNext(TokenKind.LPAREN)) {
+            position++;
+            pushFrame(CALL, token.getSymbol(), operandCount);
+            if (isNext(TokenKind.RPAREN)) {
+              position++;
+              close(TokenKind.RPAREN);
+              return;
+            }
+            break;
+          }
+          pushOperand(tree.variable(token.getSymbol()));
+          return;
+
+        case TYPE_IDENT:
+          pushOperand(tree.variable(token.getSymbol()));
+          return;
+
+        default:
+          throw new PurpleGrammarException("Unexpected token in expression: " + name(token));
+      }
+    }
+  }
+
+  /**
+   * A postfix (dot) call on the operand just parsed. Returns true if
+   * it opened an argument list, which needs operands parsing next.
+   */
+  private boolean postfix() {
+    Token name = next();
+    check(null != name && name.is(TokenKind.IDENT), "Expected function name after .");
+
+    // The operand is the call's first arg.
+    if (isNext(TokenKind.LPAREN)) {
+      position++;
+      pushFrame(CALL, name.getSymbol(), operandCount - 1);
+      if (isNext(TokenKind.RPAREN)) {
+        position++;
+        close(TokenKind.RPAREN);
+        return false;
+      }
+      return true;
+    }
+
+    operands[operandCount - 1] = tree.call(name.getSymbol(), operands[operandCount - 1]);
+    return false;
+  }
+
+  /**
+   * Closes the innermost group or argument list, leaving its value as an
+   * operand.
+   */
+  private void close(TokenKind rparen) {
+    reduce(Integer.MIN_VALUE);
+    frameCount--;
+    int first = frameOperands[frameCount];
+
+    if (frameKinds[frameCount] == GROUP) {
+      check(operandCount == first + 1, "Missing ) in parenthetical expression");
+      return;
+    }
+
+    check(TokenKind.RPAREN == rparen, "Missing ) in parenthetical function call");
+    for (int i = first + 1; i < operandCount; i++) {
+      tree.link(operands[i - 1], operands[i]);
+    }
+    int firstArg = operandCount > first ? operands[first] : -1;
+    operandCount = first;
+    pushOperand(tree.call(frameSymbols[frameCount], firstArg));
+  }
+
+  /**
+   * Applies the pending infix calls of the innermost frame that bind at
+   * least as tightly as the given precedence.
+   */
+  private void reduce(int precedence) {
+    int floor = frameCount > 0 ? frameOperators[frameCount - 1] : 0;
+    while (operatorCount > floor && precedence < operatorPrecedences[operatorCount - 1]) {
+      operatorCount--;
+      int right = operands[--operandCount];
+      int left = operands[operandCount - 1];
+      tree.link(left, right);
+      operands[operandCount - 1] = tree.call(operatorSymbols[operatorCount], left);
+    }
+  }
+
+  private void pushOperand(int node) {
+    if (operandCount == operands.length) {
+      operands = grow(operands);
+    }
+    operands[operandCount++] = node;
+  }
+
+  private void pushOperator(int symbol, int precedence) {
+    if (operatorCount == operatorSymbols.length) {
+      operatorSymbols = grow(operatorSymbols);
+      operatorPrecedences = grow(operatorPrecedences);
+    }
+    operatorSymbols[operatorCount] = symbol;
+    operatorPrecedences[operatorCount] = precedence;
+    operatorCount++;
+  }
+
+  private void pushFrame(byte kind, int symbol, int firstOperand) {
+    if (frameCount == frameKinds.length) {
+      byte[] grown = new byte[frameCount * 2];
+      System.arraycopy(frameKinds, 0, grown, 0, frameCount);
+      frameKinds = grown;
+      frameSymbols = grow(frameSymbols);
+      frameOperands = grow(frameOperands);
+      frameOperators = grow(frameOperators);
+    }
+    frameKinds[frameCount] = kind;
+    frameSymbols[frameCount] = symbol;
+    frameOperands[frameCount] = firstOperand;
+    frameOperators[frameCount] = operatorCount;
+    frameCount++;
+  }
+
+  private static int[] grow(int[] array) {
+    int[] grown = new int[array.length * 2];
+    System.arraycopy(array, 0, grown, 0, array.length);
+    return grown;
+  }
+
+  private Token peek() {
+    return position < end ? tokens.get(position) : null;
+  }
+
+  private Token next() {
+    Token token = peek();
+    if (null != token) {
+      position++;
+    }
+    return token;
+  }
+
+  private boolean isNext(TokenKind kind) {
+    Token token = peek();
+    return null != token && token.is(kind);
+  }
+
+  private static String name(Token token) {
+    return null == token ? "end of input" : token.getPrintableName();
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition)
+      throw new PurpleGrammarException(message);
+  }
+}
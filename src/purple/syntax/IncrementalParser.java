@@ -0,0 +1,280 @@
+package purple.syntax;
+
+import purple.Token;
+import purple.TokenKind;
+import purple.TokenSource;
+import purple.syntax.model.Script;
+import purple.syntax.model.SyntaxNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps a parsed script up to date as its reduced token stream is edited,
+ * reparsing only the top-level units (definitions and lines) that an edit
+ * touches. Every other unit keeps the very node it was parsed to before.
+ *
+ * The stream is held a unit at a time, each with the blank lines that
+ * follow it, so an edit only ever copies the tokens of the units it
+ * touches. Each unit is parsed as if it were a script of its own, same
+ * as {@link Parser#parseScript(String, java.util.concurrent.ForkJoinPool)}.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public class IncrementalParser {
+  private final String name;
+  private final OperatorTable operators;
+  private final SyntaxTree tree = new SyntaxTree();
+
+  private final List<Unit> units = new ArrayList<Unit>();
+  private int[] starts;                // index of each unit's first token, and the end
+  private List<Token> blank = new ArrayList<Token>();   // all there is, if no units
+  private Script script;
+
+  public IncrementalParser(String name, List<Token> tokens) {
+    this(name, tokens, null);
+  }
+
+  /**
+   * Parses expressions with the {@link ExpressionParser}, see
+   * {@link Parser#Parser(TokenSource, OperatorTable)}.
+   */
+  public IncrementalParser(String name, List<Token> tokens, OperatorTable operators) {
+    this.name = name;
+    this.operators = operators;
+    rebuild(tokens);
+  }
+
+  public Script getScript() {
+    return script;
+  }
+
+  /**
+   * Number of tokens in the (edited) stream.
+   */
+  public int size() {
+    return starts[starts.length - 1];
+  }
+
+  /**
+   * A copy of the whole (edited) token stream.
+   */
+  public List<Token> getTokens() {
+    List<Token> tokens = new ArrayList<Token>(size());
+    tokens.addAll(blank);
+    for (Unit unit : units) {
+      tokens.addAll(unit.tokens);
+    }
+    return tokens;
+  }
+
+  /**
+   * Replaces tokens [from, to) of the stream with the given ones, and
+   * reparses the units they fall in. Returns the updated script.
+   */
+  public Script edit(int from, int to, List<Token> replacement) {
+    if (from < 0 || to < from || to > size()) {
+      throw new IndexOutOfBoundsException("Edit [" + from + ", " + to + ") of " + size() + " tokens");
+    }
+    if (units.isEmpty()) {
+      List<Token> tokens = new ArrayList<Token>(blank);
+      tokens.subList(from, to).clear();
+      tokens.addAll(from, replacement);
+      rebuild(tokens);
+      return script;
+    }
+
+    int first = unitAt(from);
+    int last = (to > from) ? unitAt(to - 1) : first;
+
+    // Reparse the units touched. If the last of them now runs on past its
+    // old end (say a closing brace was deleted), take in the next one too.
+    List<Token> region;
+    List<Unit> reparsed = new ArrayList<Unit>();
+    while (true) {
+      region = new ArrayList<Token>();
+      for (int unit = first; unit <= last; unit++) {
+        region.addAll(units.get(unit).tokens);
+      }
+      int offset = starts[first];
+      region.subList(from - offset, to - offset).clear();
+      region.addAll(from - offset, replacement);
+
+      if (split(region, reparsed, last == units.size() - 1)) {
+        break;
+      }
+      last++;
+    }
+
+    int removed = last - first + 1;
+    if (reparsed.isEmpty()) {
+      // Nothing left but blank lines, which go to a neighbouring unit.
+      if (first > 0) {
+        Unit previous = units.get(first - 1);
+        previous.tokens.addAll(region);
+      } else if (last < units.size() - 1) {
+        Unit next = units.get(last + 1);
+        next.tokens.addAll(0, region);
+        next.start += region.size();
+        reparsed.add(next);
+        removed++;
+      } else {
+        blank = region;
+      }
+    }
+
+    units.subList(first, first + removed).clear();
+    units.addAll(first, reparsed);
+    update(first, removed, reparsed.size(), replacement.size() - (to - from));
+    return script;
+  }
+
+  private void rebuild(List<Token> tokens) {
+    units.clear();
+    split(tokens, units, true);
+    blank = units.isEmpty() ? new ArrayList<Token>(tokens) : new ArrayList<Token>();
+
+    starts = new int[units.size() + 1];
+    SyntaxNode[] sequence = new SyntaxNode[units.size()];
+    int start = blank.size();
+    for (int i = 0; i < units.size(); i++) {
+      Unit unit = units.get(i);
+      starts[i] = start;
+      sequence[i] = unit.node;
+      start += unit.tokens.size();
+    }
+    starts[units.size()] = start;
+    script = new Script(name, sequence);
+  }
+
+  /**
+   * Index of the unit holding the token at the given index (or the last
+   * unit, for the end of the stream).
+   */
+  private int unitAt(int index) {
+    int low = 0;
+    int high = units.size() - 1;
+    while (low < high) {
+      int middle = (low + high + 1) >>> 1;
+      if (starts[middle] <= index) {
+        low = middle;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Splits the given tokens into units, and parses each. Leading blank
+   * lines go with the first unit, trailing ones with the one they follow.
+   * Unless they are the rest of the stream, returns false (having parsed
+   * nothing) if the last unit runs into the end of the tokens, i.e. it may
+   * carry on into whatever follows them.
+   */
+  private boolean split(List<Token> tokens, List<Unit> out, boolean rest) {
+    int size = tokens.size();
+    int[] bounds = new int[16];
+    int count = 0;
+    boolean finished = true;
+
+    int index = 0;
+    while (true) {
+      while (index < size && tokens.get(index).isEol()) {
+        index++;
+      }
+      if (index == size) {
+        break;
+      }
+
+      // Each unit is split (and parsed) over tokens of its own, so that
+      // any parens it leaves open can't close in another.
+      TokenSource source = TokenSource.of(tokens.subList(index, size));
+      int end = index + parser(source).unitEnd(0);
+      finished = end < size || isClosedDefinition(source, end - index);
+
+      if (count == bounds.length) {
+        int[] grown = new int[count * 2];
+        System.arraycopy(bounds, 0, grown, 0, count);
+        bounds = grown;
+      }
+      bounds[count++] = index;
+      bounds[count++] = end;
+      index = end;
+    }
+    if (!finished && !rest) {
+      return false;
+    }
+
+    for (int i = 0; i < count; i += 2) {
+      int segment = (i == 0) ? 0 : bounds[i];
+      int segmentEnd = (i + 2 < count) ? bounds[i + 2] : size;
+
+      Unit unit = new Unit();
+      unit.tokens = new ArrayList<Token>(tokens.subList(segment, segmentEnd));
+      unit.start = bounds[i] - segment;
+      unit.length = bounds[i + 1] - bounds[i];
+      parse(unit);
+      out.add(unit);
+    }
+    return true;
+  }
+
+  private boolean isClosedDefinition(TokenSource source, int end) {
+    Token token = source.get(0);
+    if (!token.is(TokenKind.DEF) && !token.is(TokenKind.CLASS)) {
+      return false;
+    }
+    return source.get(end - 1).is(TokenKind.RBRACE) && source.balancingIndex(end - 1) >= 0;
+  }
+
+  private void parse(Unit unit) {
+    unit.node = parser(TokenSource.of(unit.tokens)).parseUnit(tree, unit.start, unit.start + unit.length);
+  }
+
+  private Parser parser(TokenSource source) {
+    return (null == operators) ? new Parser(source) : new Parser(source, operators);
+  }
+
+  /**
+   * Brings where each unit starts, and the script, up to date after the
+   * given number of units were replaced from the first on. The starts of
+   * those after are just moved along by the change in size.
+   */
+  private void update(int first, int removed, int added, int delta) {
+    int count = units.size();
+    int[] moved = new int[count + 1];
+    SyntaxNode[] sequence = new SyntaxNode[count];
+    SyntaxNode[] previous = script.getSequence();
+    System.arraycopy(starts, 0, moved, 0, first);
+    System.arraycopy(previous, 0, sequence, 0, first);
+
+    int start = (first == 0) ? blank.size() : starts[first - 1] + units.get(first - 1).tokens.size();
+    for (int i = first; i < first + added; i++) {
+      Unit unit = units.get(i);
+      moved[i] = start;
+      sequence[i] = unit.node;
+      start += unit.tokens.size();
+    }
+
+    int rest = count - first - added;
+    for (int i = 0; i <= rest; i++) {
+      moved[first + added + i] = starts[first + removed + i] + delta;
+    }
+    System.arraycopy(previous, first + removed, sequence, first + added, rest);
+
+    starts = moved;
+    script = new Script(name, sequence);
+  }
+
+  /**
+   * A top-level unit, and its segment of the token stream: the unit's own
+   * tokens, followed by any blank lines up to the next unit.
+   */
+  private static final class Unit {
+    private List<Token> tokens;
+    private int start;        // of the unit proper, in its segment
+    private int length;
+    private SyntaxNode node;
+  }
+}
@@ -0,0 +1,13 @@
+package purple.syntax;
+
+import purple.syntax.model.SyntaxNode;
+
+/**
+ * Receives the top-level nodes of a script in order, each as soon as it
+ * has been parsed. See {@link Parser#parseScript(NodeListener)}.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public interface NodeListener {
+  void parsed(SyntaxNode node);
+}
@@ -0,0 +1,90 @@
+package purple.syntax;
+
+import purple.Symbols;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Precedence and associativity of infix function calls, for the
+ * {@link ExpressionParser}. Any identifier may be called infix, so ones
+ * that aren't declared here get the table's default precedence.
+ *
+ * The standard table gives every operator the same precedence and makes
+ * them all right associative, i.e. x + y * z is x.+(y.*(z)), which is
+ * what the reducer's infix rewrite has always produced.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public class OperatorTable {
+  public static enum Associativity {
+    LEFT, RIGHT
+  }
+
+  /**
+   * Precedence of operators that haven't been declared. Declared ones
+   * bind tighter if given a higher number, and looser if lower.
+   */
+  public static final int DEFAULT_PRECEDENCE = 10;
+
+  private final Map<Integer, Operator> operators = new HashMap<Integer, Operator>();
+  private final Operator defaultOperator;
+
+  public OperatorTable(Associativity defaultAssociativity) {
+    this.defaultOperator = new Operator(DEFAULT_PRECEDENCE, defaultAssociativity);
+  }
+
+  public static OperatorTable standard() {
+    return new OperatorTable(Associativity.RIGHT);
+  }
+
+  /**
+   * Declares the precedence and associativity of an infix function.
+   */
+  public OperatorTable infix(String name, int precedence, Associativity associativity) {
+    if (precedence < 0) {
+      throw new IllegalArgumentException("Precedence must not be negative: " + precedence);
+    }
+    operators.put(Symbols.intern(name), new Operator(precedence, associativity));
+    return this;
+  }
+
+  Operator get(int symbol) {
+    Operator operator = operators.get(symbol);
+    return null == operator ? defaultOperator : operator;
+  }
+
+  /**
+   * Describes the table, the same way for equal tables in any VM.
+   */
+  String signature() {
+    List<String> declared = new ArrayList<String>();
+    for (Map.Entry<Integer, Operator> entry : operators.entrySet()) {
+      Operator operator = entry.getValue();
+      declared.add(Symbols.nameOf(entry.getKey()) + ' ' + operator.precedence + ' ' + operator.associativity);
+    }
+    Collections.sort(declared);
+    return defaultOperator.associativity + " " + declared;
+  }
+
+  static final class Operator {
+    final int precedence;
+    final Associativity associativity;
+
+    private Operator(int precedence, Associativity associativity) {
+      this.precedence = precedence;
+      this.associativity = associativity;
+    }
+
+    /**
+     * The least precedence an operator to the right of this one must have
+     * to take this one's right operand for itself.
+     */
+    int rightPrecedence() {
+      return associativity == Associativity.LEFT ? precedence + 1 : precedence;
+    }
+  }
+}
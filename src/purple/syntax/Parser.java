@@ -2,10 +2,13 @@ package purple.syntax;
 
 import purple.Token;
 import purple.TokenKind;
+import purple.TokenSource;
 import purple.syntax.model.*;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * The reducer converts a purple token stream into an eval tree
@@ -15,36 +18,277 @@ import java.util.ArrayList;
  * @author Dhanji R. Prasanna (dhanji@gmail com)
  */
 public class Parser {
+  // Fewest tokens worth parsing as a separate task.
+  private static final int UNIT_GRAIN = 2048;
 
-  private final List<Token> tokens;
+  private final TokenSource tokens;
+  private final OperatorTable operators;
+  private final ExpressionParser expressions;
 
   public Parser(List<Token> tokens) {
+    this(TokenSource.of(tokens));
+  }
+
+  /**
+   * Parses tokens as they are pulled from the given source, so only as
+   * much of the script is lexed and reduced as it takes to parse.
+   */
+  public Parser(TokenSource tokens) {
     this.tokens = tokens;
+    this.operators = null;
+    this.expressions = null;
+  }
+
+  public Parser(List<Token> tokens, OperatorTable operators) {
+    this(TokenSource.of(tokens), operators);
+  }
+
+  /**
+   * Parses expressions with the {@link ExpressionParser}, binding infix
+   * calls by the given table. The tokens should have been reduced with
+   * their infix calls left as written, see {@link purple.Tokenizer#tokenizeInfix()}.
+   * Parses the first statement of the script (a definition or an
+   * expression on a single line).
+   */
+  public Parser(TokenSource tokens, OperatorTable operators) {
+    this.tokens = tokens;
+    this.operators = operators;
+    this.expressions = new ExpressionParser(tokens, operators);
   }
 
   // stateful parser, maintains offset into token stream
   // to skip ahead on returning from a parsing rule.
   private int skip = 0;
+  private boolean lazyBodies;
+  private Nodes nodes;
+
+  /**
+   * Parses function bodies only when they are first asked for, see
+   * {@link FunctionDef#getBody()}. Definitions are read as far as the
+   * brace closing their body, and the tokens in between copied out to
+   * be parsed later, so errors in a body are not found until then.
+   */
+  public Parser lazyBodies() {
+    this.lazyBodies = true;
+    return this;
+  }
+
+  /**
+   * Builds literals, variables, calls and do blocks with the given
+   * factory, so that equal ones are shared rather than built afresh.
+   */
+  public Parser shareNodes(Nodes nodes) {
+    this.nodes = nodes;
+    return this;
+  }
 
   public SyntaxNode parse() {
-    return parseRange(0, tokens.size());
+    SyntaxTree tree = new SyntaxTree();
+    int node = parse(tree);
+    return node < 0 ? null : tree.toNode(node, nodes);
   }
 
-  private SyntaxNode parseRange(int start, int length) {
-    SyntaxNode node = null;
+  /**
+   * Parses the first statement into the given tree, returning its node,
+   * or -1 if the script is empty.
+   */
+  public int parse(SyntaxTree tree) {
+    if (null != expressions) {
+      return statement(tree, 0, Integer.MAX_VALUE);
+    }
+    return parseExpression(tree, 0, Integer.MAX_VALUE);
+  }
 
-    for (int index = start; index < length; index++) {
+  /**
+   * Parses the whole script, in parallel on the given pool. Top-level
+   * definitions and lines don't depend on each other, so the script is
+   * split into these units, which are parsed concurrently (each as if
+   * it were a script of its own) and put back together in source order.
+   *
+   * If any unit fails to parse, the error of the first one in the script
+   * is thrown. The operator table must not be changed while parsing.
+   *
+   * @see #parseScript(NodeListener)
+   */
+  public Script parseScript(String name, ForkJoinPool pool) {
+    // Read all the tokens up front, so they can be shared by the tasks.
+    tokens.size();
+    int[] units = units();
+
+    SyntaxNode[] sequence = new SyntaxNode[units.length / 2];
+    RuntimeException[] failures = new RuntimeException[sequence.length];
+    pool.invoke(new ParseUnits(units, 0, sequence.length, sequence, failures));
+
+    for (RuntimeException failure : failures) {
+      if (null != failure) {
+        throw failure;
+      }
+    }
+    return new Script(name, sequence);
+  }
+
+  /**
+   * Parses the whole script a top-level unit at a time, handing each
+   * node to the given listener as soon as it has been parsed. Tokens are
+   * read only as far as the end of the unit being parsed, and discarded
+   * once it is done, so a streamed script (see {@link purple.Tokenizer#stream()})
+   * is parsed holding no more than a unit's worth of tokens at once.
+   */
+  public void parseScript(NodeListener listener) {
+    SyntaxTree tree = new SyntaxTree();
+    int index = 0;
+    while (tokens.has(index)) {
+      if (tokens.get(index).isEol()) {
+        index++;
+        continue;
+      }
+
+      int end = unitEnd(index);
+      listener.parsed(parseUnit(tree, index, end));
+      tokens.discard(end);
+      index = end;
+    }
+  }
+
+  /**
+   * Splits the script into its top-level units, returning the start and
+   * (exclusive) end index of each in turn. A definition runs to the brace
+   * that closes its body, anything else to the end of its line.
+   */
+  private int[] units() {
+    int[] units = new int[64];
+    int count = 0;
+
+    int index = 0;
+    while (tokens.has(index)) {
+      if (tokens.get(index).isEol()) {
+        index++;
+        continue;
+      }
+
+      int end = unitEnd(index);
+      if (count == units.length) {
+        int[] grown = new int[count * 2];
+        System.arraycopy(units, 0, grown, 0, count);
+        units = grown;
+      }
+      units[count++] = index;
+      units[count++] = end;
+      index = end;
+    }
+
+    int[] trimmed = new int[count];
+    System.arraycopy(units, 0, trimmed, 0, count);
+    return trimmed;
+  }
+
+  /**
+   * End (exclusive) of the top-level unit starting at the given index.
+   */
+  int unitEnd(int index) {
+    Token token = tokens.get(index);
+    return (token.is(TokenKind.DEF) || token.is(TokenKind.CLASS))
+        ? definitionEnd(index)
+        : lineEnd(index);
+  }
+
+  private int definitionEnd(int index) {
+    // Jump from the opening brace of the body straight to its closer.
+    for (int i = index + 1; tokens.has(i); i++) {
+      if (tokens.get(i).is(TokenKind.LBRACE)) {
+        int closer = tokens.balancingIndex(i);
+        return closer < 0 ? tokens.size() : closer + 1;
+      }
+    }
+    return tokens.size();
+  }
+
+  private int lineEnd(int index) {
+    // Skip over anything in parens (or braces) whole.
+    while (tokens.has(index) && !tokens.get(index).isEol()) {
+      index = Math.max(index, tokens.balancingIndex(index)) + 1;
+    }
+    return index;
+  }
+
+  /**
+   * Parses a single top-level unit, in a tree of its own. The tree is
+   * reused from one unit to the next.
+   */
+  SyntaxNode parseUnit(SyntaxTree tree, int start, int end) {
+    skip = 0;
+    tree.clear();
+    int node = (null == expressions) ? parseExpression(tree, start, end) : statement(tree, start, end);
+    return node < 0 ? null : tree.toNode(node, nodes);
+  }
+
+  /**
+   * Parses a run of units, splitting them among subtasks if there are
+   * enough tokens in it. Each task parses its units with a parser of its
+   * own, over the (shared, read-only) token source.
+   */
+  @SuppressWarnings("serial") // never serialized
+  private final class ParseUnits extends RecursiveAction {
+    private final int[] units;
+    private final int from;
+    private final int to;
+    private final SyntaxNode[] results;
+    private final RuntimeException[] failures;
+
+    private ParseUnits(int[] units, int from, int to, SyntaxNode[] results,
+                       RuntimeException[] failures) {
+      this.units = units;
+      this.from = from;
+      this.to = to;
+      this.results = results;
+      this.failures = failures;
+    }
+
+    @Override
+    protected void compute() {
+      int tokenCount = to > from ? units[2 * to - 1] - units[2 * from] : 0;
+      if (to - from > 1 && tokenCount > UNIT_GRAIN) {
+        int middle = (from + to) >>> 1;
+        invokeAll(new ParseUnits(units, from, middle, results, failures),
+            new ParseUnits(units, middle, to, results, failures));
+        return;
+      }
+
+      Parser parser = (null == operators) ? new Parser(tokens) : new Parser(tokens, operators);
+      parser.lazyBodies = lazyBodies;
+      parser.nodes = nodes;
+      SyntaxTree tree = new SyntaxTree();
+      for (int unit = from; unit < to; unit++) {
+        try {
+          results[unit] = parser.parseUnit(tree, units[2 * unit], units[2 * unit + 1]);
+        } catch (RuntimeException e) {
+          // The rest of this run can't fail any earlier in the script.
+          failures[unit] = e;
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Parses a range of reduced tokens into the tree, returning its node,
+   * or -1 if there is nothing in it.
+   */
+  private int parseExpression(SyntaxTree tree, int start, int length) {
+    int node = -1;
+
+    for (int index = start; index < length && tokens.has(index); index++) {
       Token token = tokens.get(index);
 
       // Parse class definition subtrees separately.
       if (token.is(TokenKind.CLASS)) {
-        return classDef(index);
+        return classDef(tree, index);
       }
 
 
       // Parse function definition subtrees separately.
       if (token.is(TokenKind.DEF)) {
-        return functionDef(index);
+        return functionDef(tree, index);
       }
 
       // If there is already a variable here, then this is a free function call.
@@ -54,13 +298,13 @@ public class Parser {
       if (token.is(TokenKind.IDENT) && null != next && next.is(TokenKind.LPAREN)) {
         int endAt = balancedSeek(TokenKind.LPAREN, TokenKind.RPAREN, index + 2);
         // LL(k) style parse: rest of stream.
-        SyntaxNode freeArg = parseRange(index + 2, endAt);
+        int freeArg = parseRange(tree, index + 2, endAt);
 
-        return new FunctionCall(token.getName(), new SyntaxNode[] { freeArg });
+        return tree.call(token.getSymbol(), freeArg);
       }
 
       // process first token as an expression (literal, var, etc.)
-      node = processToken(token);
+      node = processToken(tree, token);
 
       // if the next token is a dot, then this whole thing is a
       // postfix function call.
@@ -72,10 +316,10 @@ public class Parser {
         check(TokenKind.IDENT == twoAhead.getKind(), "Expected function name after .");
 
         // replace root expression node with a wrapped function call node.
-        List<SyntaxNode> args = new ArrayList<SyntaxNode>();
-        args.add(node);
+        int target = node < 0 ? tree.empty() : node;
+        parseArgList(tree, index + skip, target);
 
-        node = new FunctionCall(twoAhead.getName(), parseArgList(index + skip, args));
+        node = tree.call(twoAhead.getSymbol(), target);
 
         // skip over function call tokens
         index += skip;
@@ -85,10 +329,40 @@ public class Parser {
     return node;
   }
 
+  /**
+   * Parses a range of tokens into the tree. An empty range is parsed as
+   * an empty node.
+   */
+  private int parseRange(SyntaxTree tree, int start, int end) {
+    int node = (null == expressions) ? parseExpression(tree, start, end) : statement(tree, start, end);
+    return node < 0 ? tree.empty() : node;
+  }
+
+  /**
+   * Parses a definition, or a single expression with the expression parser.
+   */
+  private int statement(SyntaxTree tree, int start, int end) {
+    // skip blank lines.
+    int index = start;
+    while (index < end && tokens.has(index) && tokens.get(index).isEol()) {
+      index++;
+    }
+
+    Token token = index < end ? tokens.get(index) : null;
+    if (null == token) {
+      return -1;
+    } else if (token.is(TokenKind.CLASS)) {
+      return classDef(tree, index);
+    } else if (token.is(TokenKind.DEF)) {
+      return functionDef(tree, index);
+    }
+    return expressions.parse(tree, index, end);
+  }
+
   /**
    * Parsing rule for type definitions.
    */
-  private SyntaxNode classDef(int index) {
+  private int classDef(SyntaxTree tree, int index) {
     Token typeName = lookAhead(index, 1);
     check(typeName.is(TokenKind.TYPE_IDENT), "Expected type name: " + typeName.getName());
     check(lookAhead(index, 2).is(TokenKind.COLON), "Expected ':' after type signature");
@@ -98,15 +372,22 @@ public class Parser {
     index += skip;
 
     Token token = lookAhead(index, 1);
-    List<FieldDef> fields = new ArrayList<FieldDef>();
+    int firstField = -1;
+    int lastField = -1;
     do {
       if (token.is(TokenKind.TYPE_IDENT)) {
         Token fieldName = lookAhead(index, 2);
         check(fieldName != null, "Missing field name");
         check(fieldName.is(TokenKind.IDENT), "Expected field name identifier after in class def");
-        
-        // TODO(dhanji): Replace with lookup from type pool.
-        fields.add(new FieldDef(fieldName.getName(), new ClassDef(token.getName(), null)));
+
+        // The type is resolved from the type pool when materialized.
+        int field = tree.fieldDef(fieldName.getSymbol(), token.getSymbol());
+        if (lastField < 0) {
+          firstField = field;
+        } else {
+          tree.link(lastField, field);
+        }
+        lastField = field;
       }
 
       skip(1);
@@ -120,13 +401,13 @@ public class Parser {
 
     } while (!token.is(TokenKind.RBRACE));
 
-    return new ClassDef(typeName.getName(), fields);
+    return tree.classDef(typeName.getSymbol(), firstField);
   }
 
   /**
    * Parsing rule for function definitions.
    */
-  private FunctionDef functionDef(int index) {
+  private int functionDef(SyntaxTree tree, int index) {
     // This is a function definition.
     Token funcName = lookAhead(index, 1);
     Token lparen = lookAhead(index, 2);
@@ -157,33 +438,39 @@ public class Parser {
           "Function body parsing error, no post-processed do block available! (parsing bug?)");
       skip(1);
 
-      SyntaxNode functionDoBlock = doBlock(index);
-
-      return new FunctionDef(funcName.getName(), new Argument[0], functionDoBlock);
+      return tree.functionDef(funcName.getSymbol(), body(tree, index));
     }
 
     // Non thunks, i.e. has an argument list.
-    ArrayList<Argument> args = new ArrayList<Argument>();
+    int firstArg = -1;
+    int lastArg = -1;
     int argIndex = 1;
     Token arg;
     do {
       arg = lookAhead(index, argIndex);
 
+      int argument = -1;
       if (TokenKind.IDENT == arg.getKind()) {
-        args.add(new Argument(arg.getName(), "unknown"));
+        argument = tree.argument(arg.getSymbol(), SyntaxTree.UNTYPED);
       } else if (TokenKind.TYPE_IDENT == arg.getKind()) {
         argIndex++;
 
         // Add type and argument name.
-        args.add(new Argument(lookAhead(index, argIndex).getName(), arg.getName()));
+        argument = tree.argument(lookAhead(index, argIndex).getSymbol(), arg.getSymbol());
+      }
+
+      if (argument >= 0) {
+        if (lastArg < 0) {
+          firstArg = argument;
+        } else {
+          tree.link(lastArg, argument);
+        }
+        lastArg = argument;
       }
       
       argIndex++;
     } while (TokenKind.RPAREN != arg.getKind());
 
-    // Resize the array so we dont waste memory.
-    args.trimToSize();
-
     // Skip all the arguments and the rparen.
     index += skip(argIndex - 2);
 
@@ -193,49 +480,101 @@ public class Parser {
 
 //    System.out.println("dobl found -" + doBlock(index));
 
-    return new FunctionDef(funcName.getName(), args.toArray(new Argument[args.size()]), doBlock(index));
+    int body = body(tree, index);
+    if (lastArg < 0) {
+      return tree.functionDef(funcName.getSymbol(), body);
+    }
+    tree.link(lastArg, body);
+    return tree.functionDef(funcName.getSymbol(), firstArg);
   }
 
-  private SyntaxNode doBlock(int index) {
+  private int body(SyntaxTree tree, int index) {
+    if (!lazyBodies) {
+      return doBlock(tree, index);
+    }
+    int endAt = balancedSeek(TokenKind.LBRACE, TokenKind.RBRACE, index + 2);
+    check(endAt != -1, "Missing } in function definition, tokenization bug?");
+
+    // Copied, as a streamed source lets go of its tokens unit by unit, and
+    // over just the body's text, so as not to hold on to the whole script.
+    List<Token> body = new ArrayList<Token>(endAt - index + 1);
+    for (int i = index; i <= endAt; i++) {
+      body.add(tokens.get(i));
+    }
+    return tree.deferred(new DeferredBody(Token.compact(body), operators, nodes));
+  }
+
+  private int doBlock(SyntaxTree tree, int index) {
     // Find the balancing right brace:
     int endAt = balancedSeek(TokenKind.LBRACE, TokenKind.RBRACE, index + 2);
     check(endAt != -1, "Missing } in function definition, tokenization bug?");
 
-    // split into chunks delimited by EOL
-    List<Pair<Integer, Integer>> ranges = new ArrayList<Pair<Integer, Integer>>();
+    // split into chunks delimited by EOL, parsing each as we find the next.
+    // The first is held back until we know this is a multi-line doblock.
+    int firstStart = -1;
+    int firstEnd = -1;
+    int first = -1;
+    int last = -1;
     int start = index + 2;
-    for (int i = start; i < endAt; i++) {
-      Token token = tokens.get(i);
+    for (int i = start; i <= endAt; i++) {
+      boolean isChunk = (i == endAt) ? start < endAt : tokens.get(i).isEol() && start < i;
+      if (!isChunk) {
+        continue;
+      }
 
-      if (token.isEol() && start < i) {
-        ranges.add(Pair.of(start, i));
-        start = i + 1;
+      if (firstStart < 0) {
+        firstStart = start;
+        firstEnd = i;
+      } else {
+        if (first < 0) {
+          first = last = parseRange(tree, firstStart, firstEnd);
+        }
+        int statement = parseRange(tree, start, i);
+        tree.link(last, statement);
+        last = statement;
       }
+      start = i + 1;
     }
 
-    // Add last chunk
-    if (start < endAt) {
-      ranges.add(Pair.of(start, endAt));
+    // Is this a multi-line doblock?
+    if (first >= 0) {
+      return tree.doBlock(first);
     }
 
-    // Is this a multi-line doblock?
-    if (ranges.size() > 1) {
-      List<SyntaxNode> sequence = new ArrayList<SyntaxNode>();
-      for (Pair<Integer, Integer> range : ranges) {
-        sequence.add(parseRange(range.first, range.second));
-      }
+    // otherwise parse normally, recursively.
+    return parseRange(tree, index + 2, endAt);
+  }
 
-      return new DoBlock(sequence.toArray(new SyntaxNode[sequence.size()]));
+  /**
+   * The tokens of a function body, from just before its opening brace to
+   * the closing one, parsed by a parser of its own when first asked for.
+   */
+  private static final class DeferredBody implements FunctionDef.Body {
+    private final List<Token> tokens;
+    private final OperatorTable operators;
+    private final Nodes nodes;
+
+    private DeferredBody(List<Token> tokens, OperatorTable operators, Nodes nodes) {
+      this.tokens = tokens;
+      this.operators = operators;
+      this.nodes = nodes;
     }
 
-    // otherwise parse normally, recursively.
-    return parseRange(index + 2, endAt);
+    @Override
+    public SyntaxNode parse() {
+      Parser parser = (null == operators) ? new Parser(tokens) : new Parser(tokens, operators);
+      parser.lazyBodies = true;
+      parser.nodes = nodes;
+      SyntaxTree tree = new SyntaxTree();
+      return tree.toNode(parser.doBlock(tree, 0), nodes);
+    }
   }
 
   /**
-   * Parses a parenthetical list of tokens into a stream of syntax nodes.
+   * Parses a parenthetical list of tokens into the tree, linking each
+   * argument in turn after the given one.
    */
-  private SyntaxNode[] parseArgList(int index, List<SyntaxNode> args) {
+  private void parseArgList(SyntaxTree tree, int index, int last) {
     // if 1 ahead is an lparen, then we have an arg list
     final Token firstToken = lookAhead(index, 1);
     boolean isBalanced = true;
@@ -244,12 +583,14 @@ public class Parser {
       skip++;
 
       // Split token stream into an argument list
-      for (int j = index + skip; j < tokens.size(); j++, skip++) {
+      for (int j = index + skip; tokens.has(j); j++, skip++) {
         final Token current = tokens.get(j);
 
         if (TokenKind.COMMA == current.getKind()) {
           // bake away into an argument expression
-          args.add(parseRange(index + 2, j));
+          int arg = parseRange(tree, index + 2, j);
+          tree.link(last, arg);
+          last = arg;
 
           // move start cursor past last comma.
           // and also skip comma and last token.
@@ -262,12 +603,12 @@ public class Parser {
           // this is an empty argument list.
           if (TokenKind.LPAREN != lookAhead(j, -1).getKind()) {
 
-            args.add(parseRange(index + 2, j));
+            tree.link(last, parseRange(tree, index + 2, j));
             skip(j - index + 2);
           }
 
           // Closed properly.
-          return args.toArray(new SyntaxNode[args.size()]);
+          return;
         }
       }
 
@@ -276,7 +617,6 @@ public class Parser {
     }
 
     skip(1);
-    return args.toArray(new SyntaxNode[args.size()]);
   }
 
   private static void check(boolean condition, String message) {
@@ -285,32 +625,34 @@ public class Parser {
       throw new PurpleGrammarException(message);
   }
 
-  private SyntaxNode processToken(Token token) {
+  private int processToken(SyntaxTree tree, Token token) {
     // Interpret literals as they are
     if (TokenKind.INTEGER == token.getKind()) {
-      return new IntegerLiteral(Integer.parseInt(token.getName()));
+      return tree.integer(Integer.parseInt(token.getName()));
     } else if (TokenKind.DECIMAL == token.getKind()) {
-      return new Decimal(Double.parseDouble(token.getName()));
+      return tree.decimal(Double.parseDouble(token.getName()));
     } else if (token.is(TokenKind.LPAREN) || token.is(TokenKind.RPAREN)) {
-      return null; // skip parens
+      return -1; // skip parens
     }
 
     // otherwise validate and treat as identifier...
-    return new Variable(token.getName());
+    return tree.variable(token.getSymbol());
   }
 
 
   private Token lookAhead(int from, int ahead) {
-    if (tokens.size() > from + ahead) {
-      return tokens.get(from + ahead);
-    }
-
-    return null;
+    return tokens.get(from + ahead);
   }
 
   private int balancedSeek(TokenKind scopeStart, TokenKind seek, int startAt) {
+    // Jump straight to the balancing token, if we're just inside an opener.
+    Token opener = tokens.get(startAt - 1);
+    if (null != opener && opener.is(scopeStart)) {
+      return tokens.balancingIndex(startAt - 1);
+    }
+
     int scopes = 0;
-    for (int i = startAt; i < tokens.size(); i++) {
+    for (int i = startAt; tokens.has(i); i++) {
       Token token = tokens.get(i);
       if (scopeStart == token.getKind())
         scopes++;
@@ -0,0 +1,125 @@
+package purple.syntax;
+
+import purple.Tokenizer;
+import purple.syntax.model.Script;
+import purple.syntax.model.SyntaxNode;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A directory of {@link CompiledScript}s, each named for a hash of the
+ * source it was compiled from (and of how it was parsed). A script that
+ * hasn't changed since it was last loaded is mapped back in, rather than
+ * lexed, reduced and parsed all over again.
+ *
+ * Any number of caches (in any number of processes) may share a
+ * directory, as each compiled script is written whole and then renamed
+ * into place. A cache never removes entries, so the directory grows with
+ * every distinct source (and version, and operator table) loaded through
+ * it, without limit. Entries may be deleted from outside at any time, to
+ * bound it, even while in use: a missing or corrupt entry is simply
+ * compiled again.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public class ScriptCache {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final File directory;
+  private final OperatorTable operators;
+
+  public ScriptCache(File directory) {
+    this(directory, null);
+  }
+
+  /**
+   * Parses scripts with infix calls left as written, bound by the given
+   * table, see {@link Parser#Parser(purple.TokenSource, OperatorTable)}.
+   */
+  public ScriptCache(File directory, OperatorTable operators) {
+    this.directory = directory;
+    this.operators = operators;
+  }
+
+  public Script load(File source) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(source, "r");
+    byte[] bytes;
+    try {
+      bytes = new byte[(int) raf.length()];
+      raf.readFully(bytes);
+    } finally {
+      raf.close();
+    }
+    return load(source.getName(), bytes);
+  }
+
+  public Script load(String name, String source) throws IOException {
+    return load(name, source.getBytes(UTF_8));
+  }
+
+  private Script load(String name, byte[] source) throws IOException {
+    File compiled = new File(directory, key(source) + ".purplec");
+    if (compiled.exists()) {
+      try {
+        return CompiledScript.open(compiled).toScript(name);
+      } catch (FileNotFoundException e) {
+        // Deleted since, so compile it again.
+      } catch (IllegalArgumentException e) {
+        // Corrupt, so compile it again.
+      }
+    }
+
+    Script script = parse(name, new String(source, UTF_8));
+    if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+      throw new IOException("Could not create cache directory " + directory);
+    }
+    CompiledScript.write(script, compiled);
+    return script;
+  }
+
+  private Script parse(String name, String source) {
+    Tokenizer tokenizer = new Tokenizer(source);
+    Parser parser = (null == operators)
+        ? new Parser(tokenizer.stream())
+        : new Parser(tokenizer.streamInfix(), operators);
+
+    final List<SyntaxNode> sequence = new ArrayList<SyntaxNode>();
+    parser.parseScript(new NodeListener() {
+      @Override
+      public void parsed(SyntaxNode node) {
+        sequence.add(node);
+      }
+    });
+    return new Script(name, sequence.toArray(new SyntaxNode[sequence.size()]));
+  }
+
+  private String key(byte[] source) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+
+    String mode = "v" + CompiledScript.VERSION + " "
+        + (null == operators ? "reduced" : "infix " + operators.signature()) + "\n";
+    digest.update(mode.getBytes(UTF_8));
+    byte[] hash = digest.digest(source);
+
+    char[] key = new char[hash.length * 2];
+    for (int i = 0; i < hash.length; i++) {
+      key[2 * i] = HEX[(hash[i] >>> 4) & 0xF];
+      key[2 * i + 1] = HEX[hash[i] & 0xF];
+    }
+    return new String(key);
+  }
+}
@@ -0,0 +1,635 @@
+package purple.syntax;
+
+import purple.Symbols;
+import purple.syntax.model.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A syntax tree stored as parallel primitive arrays (kinds, first child,
+ * next sibling and payload) rather than as individual node objects, the
+ * way {@link purple.TokenBuffer} stores tokens. Each node is an int index
+ * into the arrays, its children are a linked list threaded through the
+ * sibling array, and its payload is a symbol, an int literal, or an index
+ * into a table of wider constants (decimals, and name/type pairs).
+ *
+ * Trees are built bottom up by the parser, children before their parent,
+ * so every node's children have lower indices than it does. Passes over
+ * the tree walk it with a {@link Cursor}, which does not allocate, and
+ * {@link #toNode(int)} adapts any subtree to the {@link SyntaxNode} model.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public class SyntaxTree {
+  private static final Kind[] KINDS = Kind.values();
+  private static final int DEFAULT_CAPACITY = 64;
+  private static final SyntaxNode[] NO_CHILDREN = new SyntaxNode[0];
+
+  /**
+   * The type symbol of an argument declared without a type.
+   */
+  public static final int UNTYPED = -1;
+
+  // Ordinals are written out by CompiledScript, so bump its version on
+  // any change here.
+  public enum Kind {
+    INTEGER,
+    DECIMAL,
+    VARIABLE,
+    CALL,
+    DO_BLOCK,
+    FUNCTION_DEF,
+    ARGUMENT,
+    CLASS_DEF,
+    FIELD_DEF,
+
+    // A function body left to be parsed when it is first asked for.
+    DEFERRED,
+
+    // A missing expression, e.g. an empty function body.
+    EMPTY
+  }
+
+  private byte[] kinds;
+  private int[] firstChildren;
+  private int[] nextSiblings;
+  private int[] payloads;
+  private int size;
+
+  private long[] constants = new long[8];
+  private int constantCount;
+  private final List<FunctionDef.Body> deferred = new ArrayList<FunctionDef.Body>();
+
+  public SyntaxTree() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public SyntaxTree(int capacity) {
+    capacity = Math.max(capacity, 1);
+    this.kinds = new byte[capacity];
+    this.firstChildren = new int[capacity];
+    this.nextSiblings = new int[capacity];
+    this.payloads = new int[capacity];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Empties the tree, keeping its capacity.
+   */
+  public void clear() {
+    size = 0;
+    constantCount = 0;
+    deferred.clear();
+  }
+
+  public Kind kind(int node) {
+    return KINDS[kinds[node]];
+  }
+
+  public boolean is(int node, Kind kind) {
+    return kinds[node] == kind.ordinal();
+  }
+
+  /**
+   * The node's first child, or -1 if it has none.
+   */
+  public int firstChild(int node) {
+    return firstChildren[node];
+  }
+
+  /**
+   * The node following this one in its parent's children, or -1 if it
+   * is the last.
+   */
+  public int nextSibling(int node) {
+    return nextSiblings[node];
+  }
+
+  public int childCount(int node) {
+    int count = 0;
+    for (int child = firstChildren[node]; child >= 0; child = nextSiblings[child]) {
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * The name of a variable, call, definition, argument or field.
+   */
+  public int symbol(int node) {
+    Kind kind = KINDS[kinds[node]];
+    if (Kind.ARGUMENT == kind || Kind.FIELD_DEF == kind) {
+      return (int) (constants[payloads[node]] >>> 32);
+    }
+    return payloads[node];
+  }
+
+  /**
+   * The declared type of an argument or field, as a symbol, or
+   * {@link #UNTYPED}.
+   */
+  public int typeSymbol(int node) {
+    return (int) constants[payloads[node]];
+  }
+
+  public int intValue(int node) {
+    return payloads[node];
+  }
+
+  public double decimalValue(int node) {
+    return Double.longBitsToDouble(constants[payloads[node]]);
+  }
+
+  // Building, children first.
+
+  int integer(int value) {
+    return add(Kind.INTEGER, value, -1);
+  }
+
+  int decimal(double value) {
+    return add(Kind.DECIMAL, constant(Double.doubleToRawLongBits(value)), -1);
+  }
+
+  int variable(int symbol) {
+    return add(Kind.VARIABLE, symbol, -1);
+  }
+
+  int call(int symbol, int firstArg) {
+    return add(Kind.CALL, symbol, firstArg);
+  }
+
+  int doBlock(int firstStatement) {
+    return add(Kind.DO_BLOCK, 0, firstStatement);
+  }
+
+  /**
+   * A function definition's children are its arguments, followed by
+   * its body.
+   */
+  int functionDef(int symbol, int firstChild) {
+    return add(Kind.FUNCTION_DEF, symbol, firstChild);
+  }
+
+  int argument(int symbol, int type) {
+    return add(Kind.ARGUMENT, constant(pair(symbol, type)), -1);
+  }
+
+  int classDef(int symbol, int firstField) {
+    return add(Kind.CLASS_DEF, symbol, firstField);
+  }
+
+  int fieldDef(int symbol, int type) {
+    return add(Kind.FIELD_DEF, constant(pair(symbol, type)), -1);
+  }
+
+  int empty() {
+    return add(Kind.EMPTY, 0, -1);
+  }
+
+  int deferred(FunctionDef.Body body) {
+    deferred.add(body);
+    return add(Kind.DEFERRED, deferred.size() - 1, -1);
+  }
+
+  /**
+   * Makes next the sibling following node.
+   */
+  void link(int node, int next) {
+    nextSiblings[node] = next;
+  }
+
+  private int add(Kind kind, int payload, int firstChild) {
+    if (size == kinds.length) {
+      grow();
+    }
+    kinds[size] = (byte) kind.ordinal();
+    payloads[size] = payload;
+    firstChildren[size] = firstChild;
+    nextSiblings[size] = -1;
+    return size++;
+  }
+
+  private int constant(long value) {
+    if (constantCount == constants.length) {
+      long[] grown = new long[constantCount * 2];
+      System.arraycopy(constants, 0, grown, 0, constantCount);
+      constants = grown;
+    }
+    constants[constantCount] = value;
+    return constantCount++;
+  }
+
+  private static long pair(int high, int low) {
+    return ((long) high << 32) | (low & 0xFFFFFFFFL);
+  }
+
+  static ClassDef typeOf(int typeSymbol) {
+    return UNTYPED == typeSymbol ? Types.UNKNOWN : Types.of(typeSymbol);
+  }
+
+  private void grow() {
+    int capacity = kinds.length * 2;
+    byte[] grown = new byte[capacity];
+    System.arraycopy(kinds, 0, grown, 0, size);
+    kinds = grown;
+    firstChildren = copyOf(firstChildren, capacity);
+    nextSiblings = copyOf(nextSiblings, capacity);
+    payloads = copyOf(payloads, capacity);
+  }
+
+  private static int[] copyOf(int[] array, int capacity) {
+    int[] grown = new int[capacity];
+    System.arraycopy(array, 0, grown, 0, Math.min(array.length, capacity));
+    return grown;
+  }
+
+  /**
+   * Copies a model subtree into this tree, returning its node. A null
+   * subtree is stored as an {@link Kind#EMPTY} node. Function bodies not
+   * yet parsed are parsed to be copied.
+   */
+  public int add(SyntaxNode root) {
+    // Post-order, with an explicit stack: each model node is visited once
+    // on the way down (to push its children) and once on the way back up,
+    // when its children's nodes are waiting on the results stack.
+    List<SyntaxNode> pending = new ArrayList<SyntaxNode>();
+    List<Boolean> expanded = new ArrayList<Boolean>();
+    IntStack results = new IntStack();
+    pending.add(root);
+    expanded.add(false);
+
+    while (!pending.isEmpty()) {
+      int top = pending.size() - 1;
+      SyntaxNode node = pending.get(top);
+      SyntaxNode[] children = childrenOf(node);
+
+      if (!expanded.get(top)) {
+        expanded.set(top, true);
+        for (SyntaxNode child : children) {
+          pending.add(child);
+          expanded.add(false);
+        }
+        continue;
+      }
+      pending.remove(top);
+      expanded.remove(top);
+
+      // Children finished last first, so pop them back in order.
+      int first = -1;
+      int previous = -1;
+      for (int i = 0; i < children.length; i++) {
+        int child = results.pop();
+        if (previous < 0) {
+          first = child;
+        } else {
+          link(previous, child);
+        }
+        previous = child;
+      }
+      results.push(copy(node, first));
+    }
+    return results.pop();
+  }
+
+  private static SyntaxNode[] childrenOf(SyntaxNode node) {
+    if (node instanceof DoBlock) {
+      return ((DoBlock) node).getSequence();
+    } else if (node instanceof FunctionCall) {
+      return ((FunctionCall) node).getArgs();
+    } else if (node instanceof FunctionDef) {
+      FunctionDef def = (FunctionDef) node;
+      SyntaxNode[] children = new SyntaxNode[def.getArgs().length + 1];
+      System.arraycopy(def.getArgs(), 0, children, 0, def.getArgs().length);
+      children[def.getArgs().length] = def.getBody();
+      return children;
+    } else if (node instanceof ClassDef && null != ((ClassDef) node).getFields()) {
+      List<FieldDef> fields = ((ClassDef) node).getFields();
+      return fields.toArray(new SyntaxNode[fields.size()]);
+    }
+    return NO_CHILDREN;
+  }
+
+  private int copy(SyntaxNode node, int firstChild) {
+    if (null == node) {
+      return empty();
+    } else if (node instanceof IntegerLiteral) {
+      return integer(((IntegerLiteral) node).getValue());
+    } else if (node instanceof Decimal) {
+      return decimal(((Decimal) node).getValue());
+    } else if (node instanceof Variable) {
+      return variable(((Variable) node).getSymbol());
+    } else if (node instanceof DoBlock) {
+      return doBlock(firstChild);
+    } else if (node instanceof FunctionCall) {
+      return call(((FunctionCall) node).getSymbol(), firstChild);
+    } else if (node instanceof FunctionDef) {
+      return functionDef(Symbols.intern(((FunctionDef) node).getName()), firstChild);
+    } else if (node instanceof Argument) {
+      Argument argument = (Argument) node;
+      ClassDef type = argument.getTypeDef();
+      return argument(argument.getSymbol(), null == type || Types.UNKNOWN == type
+          ? UNTYPED
+          : Symbols.intern(type.getName()));
+    } else if (node instanceof ClassDef) {
+      return classDef(Symbols.intern(((ClassDef) node).getName()), firstChild);
+    } else if (node instanceof FieldDef) {
+      FieldDef field = (FieldDef) node;
+      return fieldDef(Symbols.intern(field.getName()), Symbols.intern(field.getType().getName()));
+    }
+    throw new IllegalArgumentException("Not a syntax tree node: " + node.getClass().getName());
+  }
+
+  /**
+   * Materializes the subtree at the given node as {@link SyntaxNode}
+   * model objects. An {@link Kind#EMPTY} node is materialized as null.
+   */
+  public SyntaxNode toNode(int root) {
+    return toNode(root, null);
+  }
+
+  /**
+   * Materializes the subtree at the given node, sharing literals,
+   * variables, calls and do blocks through the given factory (if any).
+   */
+  public SyntaxNode toNode(int root, Nodes nodes) {
+    // Post-order, as in add(): an expanded node is pushed as ~node.
+    IntStack pending = new IntStack();
+    SyntaxNode[] results = new SyntaxNode[16];
+    int resultCount = 0;
+    pending.push(root);
+
+    while (!pending.isEmpty()) {
+      int node = pending.pop();
+      if (node >= 0) {
+        pending.push(~node);
+        for (int child = firstChildren[node]; child >= 0; child = nextSiblings[child]) {
+          pending.push(child);
+        }
+        continue;
+      }
+      node = ~node;
+
+      SyntaxNode[] children = NO_CHILDREN;
+      if (firstChildren[node] >= 0) {
+        children = new SyntaxNode[childCount(node)];
+        for (int i = 0; i < children.length; i++) {
+          children[i] = results[--resultCount];
+        }
+      }
+
+      if (resultCount == results.length) {
+        SyntaxNode[] grown = new SyntaxNode[resultCount * 2];
+        System.arraycopy(results, 0, grown, 0, resultCount);
+        results = grown;
+      }
+      results[resultCount++] = materialize(node, children, nodes);
+    }
+    return results[0];
+  }
+
+  /**
+   * Materializes a tree that holds just the one subtree, rooted at its
+   * last node. Children come before their parents, so this is a single
+   * sweep up through the arrays.
+   */
+  SyntaxNode toNode() {
+    if (size == 0) {
+      return null;
+    }
+    SyntaxNode[] nodes = new SyntaxNode[size];
+    for (int node = 0; node < size; node++) {
+      SyntaxNode[] children = NO_CHILDREN;
+      if (firstChildren[node] >= 0) {
+        children = new SyntaxNode[childCount(node)];
+        int i = 0;
+        for (int child = firstChildren[node]; child >= 0; child = nextSiblings[child]) {
+          children[i++] = nodes[child];
+          nodes[child] = null;
+        }
+      }
+      nodes[node] = materialize(node, children, null);
+    }
+    return nodes[size - 1];
+  }
+
+  private SyntaxNode materialize(int node, SyntaxNode[] children, Nodes nodes) {
+    if (null != nodes) {
+      switch (KINDS[kinds[node]]) {
+        case INTEGER:
+          return nodes.integer(intValue(node));
+        case DECIMAL:
+          return nodes.decimal(decimalValue(node));
+        case VARIABLE:
+          return nodes.variable(symbol(node));
+        case CALL:
+          return nodes.call(symbol(node), children);
+        case DO_BLOCK:
+          return nodes.doBlock(children);
+      }
+    }
+
+    switch (KINDS[kinds[node]]) {
+      case INTEGER:
+        return new IntegerLiteral(intValue(node));
+      case DECIMAL:
+        return new Decimal(decimalValue(node));
+      case VARIABLE:
+        return new Variable(symbol(node));
+      case CALL:
+        return new FunctionCall(symbol(node), children);
+      case DO_BLOCK:
+        return new DoBlock(children);
+      case FUNCTION_DEF:
+        Argument[] args = new Argument[children.length - 1];
+        System.arraycopy(children, 0, args, 0, args.length);
+        int body = firstChildren[node];
+        while (nextSiblings[body] >= 0) {
+          body = nextSiblings[body];
+        }
+        if (is(body, Kind.DEFERRED)) {
+          return new FunctionDef(Symbols.nameOf(symbol(node)), args, deferred.get(payloads[body]));
+        }
+        return new FunctionDef(Symbols.nameOf(symbol(node)), args, children[args.length]);
+      case ARGUMENT:
+        return new Argument(symbol(node), typeOf(typeSymbol(node)));
+      case CLASS_DEF:
+        List<FieldDef> fields = new ArrayList<FieldDef>(children.length);
+        for (SyntaxNode field : children) {
+          fields.add((FieldDef) field);
+        }
+        return Types.define(symbol(node), fields);
+      case FIELD_DEF:
+        return new FieldDef(Symbols.nameOf(symbol(node)), Types.of(typeSymbol(node)));
+      default:
+        return null;
+    }
+  }
+
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  /**
+   * Callbacks for a walk over a subtree, see {@link Cursor#walk}.
+   */
+  public interface Visitor {
+    /**
+     * Called on the way down to a node. Return false to skip its children.
+     */
+    boolean enter(SyntaxTree tree, int node);
+
+    /**
+     * Called on the way back up, after all of the node's children.
+     */
+    void exit(SyntaxTree tree, int node);
+  }
+
+  /**
+   * A position in the tree, that can move down to a node's children,
+   * across to its siblings and back up again. It remembers the way back
+   * up in a stack of its own, which is reused as it moves, so a cursor
+   * does not allocate once it has been as deep as the tree goes.
+   */
+  public final class Cursor {
+    private final IntStack parents = new IntStack();
+    private int node = -1;
+
+    public int node() {
+      return node;
+    }
+
+    /**
+     * Moves to the given node, forgetting the way up from it.
+     */
+    public void seek(int node) {
+      this.node = node;
+      parents.clear();
+    }
+
+    /**
+     * Number of moves down since the last seek.
+     */
+    public int depth() {
+      return parents.size();
+    }
+
+    public Kind kind() {
+      return SyntaxTree.this.kind(node);
+    }
+
+    public boolean is(Kind kind) {
+      return SyntaxTree.this.is(node, kind);
+    }
+
+    public int symbol() {
+      return SyntaxTree.this.symbol(node);
+    }
+
+    public int intValue() {
+      return SyntaxTree.this.intValue(node);
+    }
+
+    public double decimalValue() {
+      return SyntaxTree.this.decimalValue(node);
+    }
+
+    /**
+     * Moves down to the first child, returning false (and staying put)
+     * if there are none.
+     */
+    public boolean firstChild() {
+      int child = firstChildren[node];
+      if (child < 0) {
+        return false;
+      }
+      parents.push(node);
+      node = child;
+      return true;
+    }
+
+    /**
+     * Moves across to the next sibling, returning false (and staying put)
+     * if this is the last child, or the node the cursor was seeked to.
+     */
+    public boolean nextSibling() {
+      int sibling = nextSiblings[node];
+      if (sibling < 0 || parents.isEmpty()) {
+        return false;
+      }
+      node = sibling;
+      return true;
+    }
+
+    /**
+     * Moves back up to the parent, returning false (and staying put) at
+     * the node the cursor was seeked to.
+     */
+    public boolean parent() {
+      if (parents.isEmpty()) {
+        return false;
+      }
+      node = parents.pop();
+      return true;
+    }
+
+    /**
+     * Walks the subtree at the cursor in order, without recursing,
+     * leaving the cursor where it started.
+     */
+    public void walk(Visitor visitor) {
+      int depth = parents.size();
+      while (true) {
+        if (visitor.enter(SyntaxTree.this, node) && firstChild()) {
+          continue;
+        }
+
+        // Leaf (or skipped), so climb back up to the next unvisited sibling.
+        while (true) {
+          visitor.exit(SyntaxTree.this, node);
+          if (parents.size() == depth) {
+            return;
+          }
+          if (nextSibling()) {
+            break;
+          }
+          parent();
+        }
+      }
+    }
+  }
+
+  /**
+   * A growable stack of ints.
+   */
+  private static final class IntStack {
+    private int[] items = new int[16];
+    private int size;
+
+    void push(int item) {
+      if (size == items.length) {
+        items = copyOf(items, size * 2);
+      }
+      items[size++] = item;
+    }
+
+    int pop() {
+      return items[--size];
+    }
+
+    int size() {
+      return size;
+    }
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    void clear() {
+      size = 0;
+    }
+  }
+}
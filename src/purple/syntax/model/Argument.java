@@ -1,32 +1,63 @@
 package purple.syntax.model;
 
+import purple.Symbols;
+
 /**
  * Function argument.
  *
  * @author Dhanji R. Prasanna (dhanji@gmail com)
  */
 public class Argument implements SyntaxNode {
-  private final String name;
-  private final String type; // this will probably change to its own kind
+  private final int symbol;
+  private final ClassDef type;
 
   public Argument(String name, String type) {
-    this.name = name;
-    this.type = type;
+    this(Symbols.intern(name), type);
+  }
+
+  /**
+   * An argument of the named type, or of {@link Types#UNKNOWN} if the
+   * type is null or its name.
+   */
+  public Argument(int symbol, String type) {
+    this(symbol, null == type || Types.UNKNOWN.getName().equals(type) ? null : Types.of(type));
+  }
+
+  public Argument(int symbol, ClassDef type) {
+    this.symbol = symbol;
+    this.type = null == type ? Types.UNKNOWN : type;
   }
 
   public String getName() {
-    return name;
+    return Symbols.nameOf(symbol);
+  }
+
+  public int getSymbol() {
+    return symbol;
   }
 
   public String getType() {
+    return type.getName();
+  }
+
+  /**
+   * The type itself, as pooled by {@link Types}, or {@link Types#UNKNOWN}
+   * if the argument was declared without one.
+   */
+  public ClassDef getTypeDef() {
     return type;
   }
 
+  @Override
+  public <R, C> R accept(NodeVisitor<R, C> visitor, C context) {
+    return visitor.visit(this, context);
+  }
+
   @Override
   public String toString() {
     return "Argument{" +
-        "type=" + type +
-        ", name=" + name +
+        "type=" + getType() +
+        ", name=" + getName() +
         '}';
   }
 }
\ No newline at end of file
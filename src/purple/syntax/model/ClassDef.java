@@ -22,6 +22,11 @@ public class ClassDef implements SyntaxNode {
     return fields;
   }
 
+  @Override
+  public <R, C> R accept(NodeVisitor<R, C> visitor, C context) {
+    return visitor.visit(this, context);
+  }
+
   @Override
   public String toString() {
     return "ClassDef{" +
@@ -13,4 +13,23 @@ public class Decimal implements SyntaxNode {
   public double getValue() {
     return value;
   }
+
+  @Override
+  public <R, C> R accept(NodeVisitor<R, C> visitor, C context) {
+    return visitor.visit(this, context);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof Decimal)) return false;
+
+    return Double.doubleToLongBits(value) == Double.doubleToLongBits(((Decimal) o).value);
+  }
+
+  @Override
+  public int hashCode() {
+    long bits = Double.doubleToLongBits(value);
+    return (int) (bits ^ (bits >>> 32));
+  }
 }
@@ -14,7 +14,15 @@ public class DoBlock extends FunctionCall {
     this.sequence = sequence;
   }
 
+  /**
+   * A copy of the sequence, as do blocks may be shared (see {@link Nodes}).
+   */
   public SyntaxNode[] getSequence() {
+    return null == sequence ? null : sequence.clone();
+  }
+
+  // The sequence itself, for walking the tree without copying it.
+  SyntaxNode[] sequence() {
     return sequence;
   }
 
@@ -23,6 +31,25 @@ public class DoBlock extends FunctionCall {
     return true;
   }
 
+  @Override
+  public <R, C> R accept(NodeVisitor<R, C> visitor, C context) {
+    return visitor.visit(this, context);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+
+    DoBlock that = (DoBlock) o;
+    return hashCode() == that.hashCode() && Arrays.equals(sequence, that.sequence);
+  }
+
+  @Override
+  protected int computeHash() {
+    return Arrays.hashCode(sequence) + 1;
+  }
+
   @Override
   public String toString() {
     return "DoBlock{" +
@@ -20,6 +20,11 @@ public class FieldDef implements SyntaxNode {
     return type;
   }
 
+  @Override
+  public <R, C> R accept(NodeVisitor<R, C> visitor, C context) {
+    return visitor.visit(this, context);
+  }
+
   @Override
   public String toString() {
     return "FieldDef{" +
@@ -1,24 +1,43 @@
 package purple.syntax.model;
 
+import purple.Symbols;
+
 import java.util.Arrays;
 
 /**
  * @author Dhanji R. Prasanna (dhanji@gmail com)
  */
 public class FunctionCall implements SyntaxNode {
-  private final String name;
+  private final int symbol;
   private final SyntaxNode[] args;
+  private int hash;       // cached, structural
 
   public FunctionCall(String name, SyntaxNode[] args) {
-    this.name = name;
+    this(Symbols.intern(name), args);
+  }
+
+  public FunctionCall(int symbol, SyntaxNode[] args) {
+    this.symbol = symbol;
     this.args = args;
   }
 
   public String getName() {
-    return name;
+    return Symbols.nameOf(symbol);
+  }
+
+  public int getSymbol() {
+    return symbol;
   }
 
+  /**
+   * A copy of the args, as calls may be shared (see {@link Nodes}).
+   */
   public SyntaxNode[] getArgs() {
+    return null == args ? null : args.clone();
+  }
+
+  // The args themselves, for walking the tree without copying them.
+  SyntaxNode[] args() {
     return args;
   }
 
@@ -26,10 +45,45 @@ public class FunctionCall implements SyntaxNode {
     return false;
   }
 
+  @Override
+  public <R, C> R accept(NodeVisitor<R, C> visitor, C context) {
+    return visitor.visit(this, context);
+  }
+
+  /**
+   * Calls are equal if they call the same function with equal args.
+   * Args that are the same objects (see {@link Nodes}) compare at once.
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+
+    FunctionCall that = (FunctionCall) o;
+    return symbol == that.symbol && hashCode() == that.hashCode() && Arrays.equals(args, that.args);
+  }
+
+  @Override
+  public final int hashCode() {
+    int hash = this.hash;
+    if (0 == hash) {
+      hash = computeHash();
+      this.hash = hash;
+    }
+    return hash;
+  }
+
+  /**
+   * The structural hash, which {@link #hashCode()} caches.
+   */
+  protected int computeHash() {
+    return 31 * symbol + Arrays.hashCode(args);
+  }
+
   @Override
   public String toString() {
     return "FunctionCall{" +
-        "name='" + name + '\'' +
+        "name='" + getName() + '\'' +
         ", args=" + (args == null ? null : Arrays.asList(args)) +
         '}';
   }
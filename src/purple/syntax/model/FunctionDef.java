@@ -6,9 +6,15 @@ import java.util.Arrays;
  * @author Dhanji R. Prasanna (dhanji@gmail com)
  */
 public class FunctionDef implements SyntaxNode {
+  // Printed in place of a body that hasn't been parsed yet.
+  static final String UNPARSED = "<unparsed>";
+
   private final String name;
   private final Argument[] args;
-  private final SyntaxNode body;
+
+  // The body once parsed, and until then what parses it (guarded by this).
+  private volatile SyntaxNode body;
+  private Body unparsed;
 
   public FunctionDef(String name, Argument[] args, SyntaxNode body) {
     this.name = name;
@@ -16,6 +22,15 @@ public class FunctionDef implements SyntaxNode {
     this.body = body;
   }
 
+  /**
+   * A function whose body is parsed only when it is first asked for.
+   */
+  public FunctionDef(String name, Argument[] args, Body body) {
+    this.name = name;
+    this.args = args;
+    this.unparsed = body;
+  }
+
   public String getName() {
     return name;
   }
@@ -24,16 +39,50 @@ public class FunctionDef implements SyntaxNode {
     return args;
   }
 
+  /**
+   * Parses the body first if need be, exactly once however many threads
+   * ask for it.
+   */
   public SyntaxNode getBody() {
+    SyntaxNode body = this.body;
+    if (null == body) {
+      synchronized (this) {
+        body = this.body;
+        if (null == body && null != unparsed) {
+          body = this.body = unparsed.parse();
+          unparsed = null;
+        }
+      }
+    }
     return body;
   }
 
+  public synchronized boolean isBodyParsed() {
+    return null == unparsed;
+  }
+
+  @Override
+  public <R, C> R accept(NodeVisitor<R, C> visitor, C context) {
+    return visitor.visit(this, context);
+  }
+
+  /**
+   * Leaves an unparsed body as it is, rather than parsing it just to print.
+   */
   @Override
   public String toString() {
     return "FunctionDef{" +
         "name='" + name + '\'' +
         ", args=" + (args == null ? null : Arrays.asList(args)) +
-        ", body=" + body +
+        ", body=" + (isBodyParsed() ? body : UNPARSED) +
         '}';
   }
-}
\ No newline at end of file
+
+  /**
+   * Parses a function body that was skipped over along with the rest of
+   * its definition.
+   */
+  public interface Body {
+    SyntaxNode parse();
+  }
+}
@@ -14,6 +14,24 @@ public class IntegerLiteral implements SyntaxNode {
     return value;
   }
 
+  @Override
+  public <R, C> R accept(NodeVisitor<R, C> visitor, C context) {
+    return visitor.visit(this, context);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof IntegerLiteral)) return false;
+
+    return value == ((IntegerLiteral) o).value;
+  }
+
+  @Override
+  public int hashCode() {
+    return value;
+  }
+
   @Override
   public String toString() {
     return "IntegerLiteral{" +
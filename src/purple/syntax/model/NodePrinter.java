@@ -0,0 +1,264 @@
+package purple.syntax.model;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Prints syntax nodes straight to an {@link Appendable}, in the same form
+ * as their toString() methods, but in a single pass: toString() builds a
+ * string for every subtree and copies it into its parent's, over and over
+ * for deep trees, where this writes each piece of text out once. Trees of
+ * any depth can be printed, as the printer keeps what's left to print on
+ * a stack of its own rather than recursing.
+ *
+ * Optionally, each element of a list (args, statements, fields) can be
+ * put on a line of its own, indented by its depth, and subtrees below a
+ * given depth can be elided as "...". Neither is done by default. A
+ * printer is reused from one print to the next, so is not thread safe.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public final class NodePrinter {
+  private static final Parts PARTS = new Parts();
+
+  // What's left to print, last first: text, or a node (possibly null).
+  private Object[] items = new Object[32];
+  private boolean[] nodes = new boolean[32];
+  private int[] depths = new int[32];
+  private int size;
+
+  private int indent;
+  private int maxDepth = Integer.MAX_VALUE;
+  private String[] indents = new String[0];
+
+  // Depth of the node whose parts are being pushed.
+  private int depth;
+
+  /**
+   * Puts list elements on lines of their own, indented by the given
+   * number of spaces for each level deep they are.
+   */
+  public NodePrinter indent(int spaces) {
+    if (spaces < 0) {
+      throw new IllegalArgumentException("Indent must not be negative: " + spaces);
+    }
+    this.indent = spaces;
+    return this;
+  }
+
+  /**
+   * Prints nodes deeper than the given depth (the node printed is at
+   * depth 0, its children at 1, and so on) as "...".
+   */
+  public NodePrinter maxDepth(int depth) {
+    if (depth < 0) {
+      throw new IllegalArgumentException("Depth must not be negative: " + depth);
+    }
+    this.maxDepth = depth;
+    return this;
+  }
+
+  public String print(SyntaxNode node) {
+    StringBuilder out = new StringBuilder();
+    try {
+      print(node, out);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+    return out.toString();
+  }
+
+  public void print(SyntaxNode root, Appendable out) throws IOException {
+    size = 0;
+    pushNode(root, 0);
+    while (size > 0) {
+      Object item = items[--size];
+      boolean node = nodes[size];
+      items[size] = null;
+
+      if (!node) {
+        out.append((String) item);
+      } else if (null == item) {
+        out.append("null");
+      } else if (depths[size] > maxDepth) {
+        out.append("...");
+      } else {
+        depth = depths[size];
+        ((SyntaxNode) item).accept(PARTS, this);
+      }
+    }
+  }
+
+  private void push(Object item, boolean node, int depth) {
+    if (size == items.length) {
+      Object[] grown = new Object[size * 2];
+      System.arraycopy(items, 0, grown, 0, size);
+      items = grown;
+      boolean[] grownNodes = new boolean[size * 2];
+      System.arraycopy(nodes, 0, grownNodes, 0, size);
+      nodes = grownNodes;
+      int[] grownDepths = new int[size * 2];
+      System.arraycopy(depths, 0, grownDepths, 0, size);
+      depths = grownDepths;
+    }
+    items[size] = item;
+    nodes[size] = node;
+    depths[size++] = depth;
+  }
+
+  // Parts of a node are pushed last first, so they come off the stack in order.
+
+  private void pushText(String text) {
+    push(text, false, depth);
+  }
+
+  private void pushNode(SyntaxNode node, int depth) {
+    push(node, true, depth);
+  }
+
+  private void pushList(SyntaxNode[] elements) {
+    if (null == elements) {
+      pushText("null");
+      return;
+    }
+    pushList(elements, null, elements.length);
+  }
+
+  private void pushList(List<? extends SyntaxNode> elements) {
+    if (null == elements) {
+      pushText("null");
+      return;
+    }
+    pushList(null, elements, elements.size());
+  }
+
+  private void pushList(SyntaxNode[] array, List<? extends SyntaxNode> list, int length) {
+    boolean indented = indent > 0 && length > 0;
+    pushText(indented ? "\n" + indentation(depth) + "]" : "]");
+    for (int i = length - 1; i >= 0; i--) {
+      pushNode(null != array ? array[i] : list.get(i), depth + 1);
+      if (indented) {
+        pushText(indentation(depth + 1));
+        pushText(i > 0 ? ",\n" : "\n");
+      } else if (i > 0) {
+        pushText(", ");
+      }
+    }
+    pushText("[");
+  }
+
+  private String indentation(int depth) {
+    if (depth >= indents.length) {
+      String[] grown = new String[Math.max(depth + 1, indents.length * 2)];
+      System.arraycopy(indents, 0, grown, 0, indents.length);
+      indents = grown;
+    }
+    String indentation = indents[depth];
+    if (null == indentation) {
+      char[] spaces = new char[depth * indent];
+      Arrays.fill(spaces, ' ');
+      indentation = indents[depth] = new String(spaces);
+    }
+    return indentation;
+  }
+
+  /**
+   * Pushes the parts of each kind of node, same as its toString().
+   */
+  private static final class Parts implements NodeVisitor<Void, NodePrinter> {
+    @Override
+    public Void visit(IntegerLiteral node, NodePrinter printer) {
+      printer.pushText("IntegerLiteral{value=" + node.getValue() + '}');
+      return null;
+    }
+
+    @Override
+    public Void visit(Decimal node, NodePrinter printer) {
+      printer.pushText(String.valueOf(node));
+      return null;
+    }
+
+    @Override
+    public Void visit(Variable node, NodePrinter printer) {
+      printer.pushText("}");
+      printer.pushText(node.getName());
+      printer.pushText("Variable{name=");
+      return null;
+    }
+
+    @Override
+    public Void visit(FunctionCall node, NodePrinter printer) {
+      printer.pushText("}");
+      printer.pushList(node.args());
+      printer.pushText("', args=");
+      printer.pushText(node.getName());
+      printer.pushText("FunctionCall{name='");
+      return null;
+    }
+
+    @Override
+    public Void visit(DoBlock node, NodePrinter printer) {
+      printer.pushText("}");
+      printer.pushList(node.sequence());
+      printer.pushText("DoBlock{sequence=");
+      return null;
+    }
+
+    @Override
+    public Void visit(FunctionDef node, NodePrinter printer) {
+      printer.pushText("}");
+      if (node.isBodyParsed()) {
+        printer.pushNode(node.getBody(), printer.depth + 1);
+      } else {
+        printer.pushText(FunctionDef.UNPARSED);
+      }
+      printer.pushText(", body=");
+      printer.pushList(node.getArgs());
+      printer.pushText("', args=");
+      printer.pushText(node.getName());
+      printer.pushText("FunctionDef{name='");
+      return null;
+    }
+
+    @Override
+    public Void visit(Argument node, NodePrinter printer) {
+      printer.pushText("}");
+      printer.pushText(node.getName());
+      printer.pushText(", name=");
+      printer.pushText(String.valueOf(node.getType()));
+      printer.pushText("Argument{type=");
+      return null;
+    }
+
+    @Override
+    public Void visit(ClassDef node, NodePrinter printer) {
+      printer.pushText("}");
+      printer.pushList(node.getFields());
+      printer.pushText("', fields=");
+      printer.pushText(node.getName());
+      printer.pushText("ClassDef{name='");
+      return null;
+    }
+
+    @Override
+    public Void visit(FieldDef node, NodePrinter printer) {
+      printer.pushText("}");
+      printer.pushText(node.getType().getName());
+      printer.pushText("', type=");
+      printer.pushText(node.getName());
+      printer.pushText("FieldDef{name='");
+      return null;
+    }
+
+    @Override
+    public Void visit(Script node, NodePrinter printer) {
+      printer.pushText("}");
+      printer.pushList(node.getSequence());
+      printer.pushText("', sequence=");
+      printer.pushText(node.getName());
+      printer.pushText("Script{name='");
+      return null;
+    }
+  }
+}
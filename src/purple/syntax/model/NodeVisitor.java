@@ -0,0 +1,31 @@
+package purple.syntax.model;
+
+/**
+ * A pass over syntax nodes, dispatched on the type of each node by its
+ * {@link SyntaxNode#accept} method rather than by instanceof checks. Each
+ * visit is handed a context of type C, and returns a result of type R
+ * (either may be Void, if a pass has no need of it).
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public interface NodeVisitor<R, C> {
+  R visit(IntegerLiteral node, C context);
+
+  R visit(Decimal node, C context);
+
+  R visit(Variable node, C context);
+
+  R visit(FunctionCall node, C context);
+
+  R visit(DoBlock node, C context);
+
+  R visit(FunctionDef node, C context);
+
+  R visit(Argument node, C context);
+
+  R visit(ClassDef node, C context);
+
+  R visit(FieldDef node, C context);
+
+  R visit(Script node, C context);
+}
@@ -0,0 +1,167 @@
+package purple.syntax.model;
+
+import java.util.List;
+
+/**
+ * Walks a tree of syntax nodes depth first, in source order, without
+ * recursing: the way back up is kept on a stack of the walker's own, so
+ * trees of any depth can be walked, and a walker reused from one walk to
+ * the next does not allocate once it has been as deep as a tree goes.
+ *
+ * The children of calls and do blocks are their args and statements, of
+ * function definitions their args and then body, and of class definitions
+ * their fields. Null children (missing expressions) are skipped, as are
+ * function bodies that haven't been parsed yet, unless the walker is told
+ * to parse them (see {@link #parseBodies()}). A walker is not thread safe,
+ * and can't be used for another walk midway through one.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public final class NodeWalker {
+  private static final Children CHILDREN = new Children();
+
+  private SyntaxNode[] nodes = new SyntaxNode[16];
+  private boolean[] entered = new boolean[16];
+  private int size;
+  private boolean parseBodies;
+
+  /**
+   * Parses deferred function bodies as the walk reaches them, rather than
+   * skipping them.
+   */
+  public NodeWalker parseBodies() {
+    this.parseBodies = true;
+    return this;
+  }
+
+  /**
+   * Callbacks for a walk, see {@link #walk}. Typically these dispatch each
+   * node to a {@link NodeVisitor}.
+   */
+  public interface Visitor<C> {
+    /**
+     * Called on the way down to a node. Return false to skip its children.
+     */
+    boolean enter(SyntaxNode node, C context);
+
+    /**
+     * Called on the way back up, after all of the node's children (or
+     * straight after enter, if they were skipped).
+     */
+    void exit(SyntaxNode node, C context);
+  }
+
+  public <C> void walk(SyntaxNode root, Visitor<C> visitor, C context) {
+    size = 0;
+    push(root, false);
+    while (size > 0) {
+      SyntaxNode node = nodes[--size];
+      boolean exiting = entered[size];
+      nodes[size] = null;
+
+      if (exiting) {
+        visitor.exit(node, context);
+        continue;
+      }
+      if (!visitor.enter(node, context)) {
+        visitor.exit(node, context);
+        continue;
+      }
+      push(node, true);
+      node.accept(CHILDREN, this);
+    }
+  }
+
+  private void push(SyntaxNode node, boolean entered) {
+    if (null == node) {
+      return;
+    }
+    if (size == nodes.length) {
+      SyntaxNode[] grown = new SyntaxNode[size * 2];
+      System.arraycopy(nodes, 0, grown, 0, size);
+      nodes = grown;
+      boolean[] grownEntered = new boolean[size * 2];
+      System.arraycopy(this.entered, 0, grownEntered, 0, size);
+      this.entered = grownEntered;
+    }
+    nodes[size] = node;
+    this.entered[size++] = entered;
+  }
+
+  // Children are pushed last first, so they come off the stack in order.
+  private void pushAll(SyntaxNode[] children) {
+    if (null != children) {
+      for (int i = children.length - 1; i >= 0; i--) {
+        push(children[i], false);
+      }
+    }
+  }
+
+  /**
+   * Pushes each kind of node's children onto the walker's stack.
+   */
+  private static final class Children implements NodeVisitor<Void, NodeWalker> {
+    @Override
+    public Void visit(IntegerLiteral node, NodeWalker walker) {
+      return null;
+    }
+
+    @Override
+    public Void visit(Decimal node, NodeWalker walker) {
+      return null;
+    }
+
+    @Override
+    public Void visit(Variable node, NodeWalker walker) {
+      return null;
+    }
+
+    @Override
+    public Void visit(FunctionCall node, NodeWalker walker) {
+      walker.pushAll(node.args());
+      return null;
+    }
+
+    @Override
+    public Void visit(DoBlock node, NodeWalker walker) {
+      walker.pushAll(node.sequence());
+      return null;
+    }
+
+    @Override
+    public Void visit(FunctionDef node, NodeWalker walker) {
+      if (walker.parseBodies || node.isBodyParsed()) {
+        walker.push(node.getBody(), false);
+      }
+      walker.pushAll(node.getArgs());
+      return null;
+    }
+
+    @Override
+    public Void visit(Argument node, NodeWalker walker) {
+      return null;
+    }
+
+    @Override
+    public Void visit(ClassDef node, NodeWalker walker) {
+      List<FieldDef> fields = node.getFields();
+      if (null != fields) {
+        for (int i = fields.size() - 1; i >= 0; i--) {
+          walker.push(fields.get(i), false);
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public Void visit(FieldDef node, NodeWalker walker) {
+      return null;
+    }
+
+    @Override
+    public Void visit(Script node, NodeWalker walker) {
+      walker.pushAll(node.getSequence());
+      return null;
+    }
+  }
+}
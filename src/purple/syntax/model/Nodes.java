@@ -0,0 +1,163 @@
+package purple.syntax.model;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Builds expression nodes hash-consed: each structurally distinct
+ * literal, variable, call or do block is built once, and asking for an
+ * equal one again returns that same object. Generated code that repeats
+ * the same subexpressions over and over then holds one copy of each,
+ * and (since children are shared too) equal subtrees can be told apart
+ * by reference, or by their cached hashes. A node that's already shared
+ * is found by its parts, without building another to look it up by.
+ *
+ * Nodes are shared only with those built by the same factory, so a
+ * factory can be dropped along with the scripts parsed with it. Children
+ * passed in should have come from this factory, or their parent will be
+ * equal to a shared node without sharing its children. Safe for use by
+ * concurrent parsers.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public class Nodes {
+  private static final int INTEGER = 0;
+  private static final int DECIMAL = 1;
+  private static final int VARIABLE = 2;
+  private static final int CALL = 3;
+  private static final int DO_BLOCK = 4;
+
+  private final ConcurrentMap<Key, SyntaxNode> nodes = new ConcurrentHashMap<Key, SyntaxNode>();
+
+  private final ThreadLocal<Key> probes = new ThreadLocal<Key>() {
+    @Override
+    protected Key initialValue() {
+      return new Key();
+    }
+  };
+
+  public IntegerLiteral integer(int value) {
+    IntegerLiteral node = (IntegerLiteral) find(INTEGER, value, null);
+    return null != node ? node : share(INTEGER, value, null, new IntegerLiteral(value));
+  }
+
+  public Decimal decimal(double value) {
+    long bits = Double.doubleToLongBits(value);
+    Decimal node = (Decimal) find(DECIMAL, bits, null);
+    return null != node ? node : share(DECIMAL, bits, null, new Decimal(value));
+  }
+
+  public Variable variable(int symbol) {
+    Variable node = (Variable) find(VARIABLE, symbol, null);
+    return null != node ? node : share(VARIABLE, symbol, null, new Variable(symbol));
+  }
+
+  /**
+   * A shared call with the given args, which are copied if it's built.
+   */
+  public FunctionCall call(int symbol, SyntaxNode[] args) {
+    FunctionCall node = (FunctionCall) find(CALL, symbol, args);
+    if (null == node) {
+      args = copy(args);
+      node = share(CALL, symbol, args, new FunctionCall(symbol, args));
+    }
+    return node;
+  }
+
+  /**
+   * A shared do block of the given sequence, which is copied if it's built.
+   */
+  public DoBlock doBlock(SyntaxNode[] sequence) {
+    DoBlock node = (DoBlock) find(DO_BLOCK, 0, sequence);
+    if (null == node) {
+      sequence = copy(sequence);
+      node = share(DO_BLOCK, 0, sequence, new DoBlock(sequence));
+    }
+    return node;
+  }
+
+  /**
+   * The shared node equal to the given literal, variable, call or do
+   * block, which becomes the shared node if there is none yet.
+   */
+  @SuppressWarnings("unchecked")
+  public <T extends SyntaxNode> T share(T node) {
+    if (node instanceof IntegerLiteral) {
+      return (T) integer(((IntegerLiteral) node).getValue());
+    } else if (node instanceof Decimal) {
+      return (T) decimal(((Decimal) node).getValue());
+    } else if (node instanceof Variable) {
+      return (T) variable(((Variable) node).getSymbol());
+    } else if (node instanceof DoBlock) {
+      return (T) doBlock(((DoBlock) node).sequence());
+    } else if (node instanceof FunctionCall) {
+      FunctionCall call = (FunctionCall) node;
+      return (T) call(call.getSymbol(), call.args());
+    }
+    throw new IllegalArgumentException("Not a shareable node: " + node);
+  }
+
+  /**
+   * The number of distinct nodes built so far.
+   */
+  public int size() {
+    return nodes.size();
+  }
+
+  /**
+   * Looks a node up by its parts, without building it (or its key).
+   */
+  private SyntaxNode find(int kind, long value, SyntaxNode[] children) {
+    Key probe = probes.get();
+    SyntaxNode node = nodes.get(probe.of(kind, value, children));
+    probe.children = null;
+    return node;
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T extends SyntaxNode> T share(int kind, long value, SyntaxNode[] children, T node) {
+    // We may race another thread to it, in which case its node wins.
+    SyntaxNode shared = nodes.putIfAbsent(new Key().of(kind, value, children), node);
+    return null == shared ? node : (T) shared;
+  }
+
+  private static SyntaxNode[] copy(SyntaxNode[] nodes) {
+    return null == nodes ? null : nodes.clone();
+  }
+
+  /**
+   * Nodes are keyed by their parts, so that a node can be looked up
+   * (with a reusable, per-thread key) before it is built. Children are
+   * compared by equals, which is a reference compare for shared ones.
+   */
+  private static final class Key {
+    private int kind;
+    private long value;
+    private SyntaxNode[] children;
+    private int hash;
+
+    private Key of(int kind, long value, SyntaxNode[] children) {
+      this.kind = kind;
+      this.value = value;
+      this.children = children;
+      this.hash = 31 * (31 * kind + (int) (value ^ (value >>> 32))) + Arrays.hashCode(children);
+      return this;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Key)) return false;
+
+      Key key = (Key) o;
+      return hash == key.hash && kind == key.kind && value == key.value
+          && Arrays.equals(children, key.children);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
@@ -23,6 +23,11 @@ public class Script implements SyntaxNode {
     return sequence;
   }
 
+  @Override
+  public <R, C> R accept(NodeVisitor<R, C> visitor, C context) {
+    return visitor.visit(this, context);
+  }
+
   @Override
   public String toString() {
     return "Script{" +
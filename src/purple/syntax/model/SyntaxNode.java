@@ -8,4 +8,8 @@ package purple.syntax.model;
  * @author Dhanji R. Prasanna (dhanji@gmail com)
  */
 public interface SyntaxNode {
+  /**
+   * Calls the visitor's visit method for this type of node.
+   */
+  <R, C> R accept(NodeVisitor<R, C> visitor, C context);
 }
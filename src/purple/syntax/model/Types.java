@@ -0,0 +1,129 @@
+package purple.syntax.model;
+
+import purple.Symbols;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A global pool of types by name, shared by every script compiled in this
+ * VM. The types of fields and arguments resolve to the one {@link ClassDef}
+ * there is for each name, so two types are the same exactly when they are
+ * the same object. These are references to types, and have no fields.
+ *
+ * Alongside each type is the definition first given for its name, if
+ * any, which a script parsed later that defines the name the same way
+ * shares. A script that defines it differently gets a definition of its
+ * own, which is not registered: definitions are immutable, so one script
+ * never changes what another parsed.
+ *
+ * Types are looked up by the symbol of their name, and kept alongside it
+ * in pages like those of the {@link Symbols} table, so a lookup is just a
+ * couple of array reads, and never locks.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public final class Types {
+  private static final AtomicReferenceArray<AtomicReferenceArray<ClassDef>> types =
+      new AtomicReferenceArray<AtomicReferenceArray<ClassDef>>(Symbols.MAX_PAGES);
+  private static final AtomicReferenceArray<AtomicReferenceArray<ClassDef>> definitions =
+      new AtomicReferenceArray<AtomicReferenceArray<ClassDef>>(Symbols.MAX_PAGES);
+  private static final AtomicInteger size = new AtomicInteger();
+
+  /**
+   * The type of an argument declared without one. Not pooled under any
+   * name, so it is never the same as a type that is.
+   */
+  public static final ClassDef UNKNOWN = new ClassDef("unknown", null);
+
+  private Types() {
+  }
+
+  public static ClassDef of(String name) {
+    return of(Symbols.intern(name));
+  }
+
+  public static ClassDef of(int symbol) {
+    AtomicReferenceArray<ClassDef> page = page(types, symbol);
+    int index = symbol & (Symbols.PAGE_SIZE - 1);
+    ClassDef type = page.get(index);
+    if (null == type) {
+      // First time we've seen this type; if we race another thread to
+      // it, the loser's copy is simply dropped.
+      if (page.compareAndSet(index, null, new ClassDef(Symbols.nameOf(symbol), null))) {
+        size.incrementAndGet();
+      }
+      type = page.get(index);
+    }
+    return type;
+  }
+
+  /**
+   * The definition of a class with the given name and fields: the one
+   * registered for the name if it has the same fields, otherwise a new
+   * one, which is registered if the name has no definition yet.
+   */
+  public static ClassDef define(int symbol, List<FieldDef> fields) {
+    AtomicReferenceArray<ClassDef> page = page(definitions, symbol);
+    int index = symbol & (Symbols.PAGE_SIZE - 1);
+    ClassDef registered = page.get(index);
+    if (null != registered && sameFields(registered.getFields(), fields)) {
+      return registered;
+    }
+
+    ClassDef definition = new ClassDef(Symbols.nameOf(symbol),
+        Collections.unmodifiableList(new ArrayList<FieldDef>(fields)));
+    if (null == registered && !page.compareAndSet(index, null, definition)) {
+      // Another thread got there first; its definition wins if it's the same.
+      return define(symbol, fields);
+    }
+    return definition;
+  }
+
+  /**
+   * The definition registered for the given name, or null if no script
+   * has defined it.
+   */
+  public static ClassDef definitionOf(String name) {
+    return definitionOf(Symbols.intern(name));
+  }
+
+  public static ClassDef definitionOf(int symbol) {
+    return page(definitions, symbol).get(symbol & (Symbols.PAGE_SIZE - 1));
+  }
+
+  /**
+   * The number of distinct types resolved so far.
+   */
+  public static int size() {
+    return size.get();
+  }
+
+  private static boolean sameFields(List<FieldDef> fields, List<FieldDef> others) {
+    if (fields.size() != others.size()) {
+      return false;
+    }
+    for (int i = 0; i < fields.size(); i++) {
+      FieldDef field = fields.get(i);
+      FieldDef other = others.get(i);
+      if (!field.getName().equals(other.getName()) || field.getType() != other.getType()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static AtomicReferenceArray<ClassDef> page(
+      AtomicReferenceArray<AtomicReferenceArray<ClassDef>> pages, int symbol) {
+    int index = symbol >>> Symbols.PAGE_BITS;
+    AtomicReferenceArray<ClassDef> page = pages.get(index);
+    if (null == page) {
+      pages.compareAndSet(index, null, new AtomicReferenceArray<ClassDef>(Symbols.PAGE_SIZE));
+      page = pages.get(index);
+    }
+    return page;
+  }
+}
@@ -1,23 +1,51 @@
 package purple.syntax.model;
 
+import purple.Symbols;
+
 /**
  * @author Dhanji R. Prasanna (dhanji@gmail com)
  */
 public class Variable implements SyntaxNode {
-  private final String name;
+  private final int symbol;
 
   public Variable(String name) {
-    this.name = name;
+    this(Symbols.intern(name));
+  }
+
+  public Variable(int symbol) {
+    this.symbol = symbol;
   }
 
   public String getName() {
-    return name;
+    return Symbols.nameOf(symbol);
+  }
+
+  public int getSymbol() {
+    return symbol;
+  }
+
+  @Override
+  public <R, C> R accept(NodeVisitor<R, C> visitor, C context) {
+    return visitor.visit(this, context);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof Variable)) return false;
+
+    return symbol == ((Variable) o).symbol;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * symbol + 1;
   }
 
   @Override
   public String toString() {
     return "Variable{" +
-        "name=" + name +
+        "name=" + getName() +
         '}';
   }
 }
\ No newline at end of file
@@ -0,0 +1,217 @@
+package purple;
+
+import org.junit.Test;
+import purple.syntax.CompiledScript;
+import purple.syntax.OperatorTable;
+import purple.syntax.Parser;
+import purple.syntax.ScriptCache;
+import purple.syntax.SyntaxTree;
+import purple.syntax.model.Decimal;
+import purple.syntax.model.FunctionCall;
+import purple.syntax.model.Script;
+import purple.syntax.model.SyntaxNode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tests compiling scripts to their binary form, and caching them on disk.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public class CompiledScriptTest {
+  private static final String SCRIPT =
+      "puts(1 + 2)\n"
+      + "11.+(1, 5.add(1))\n"
+      + "x.y(a compare_to b + c)\n"
+      + "def thunk: {\n    58 + 2.flip \n}\n"
+      + "def +(String name, Int age): { \n  58 + 2.flip \n }\n"
+      + "def meth(arg): {\n  puts(arg + 1)\n  arg - 2 \n}\n"
+      + "class Person: {\n String name \n Int age \n}\n"
+      + "puts(\"caf\u00e9\", -3)\n";
+
+  @Test
+  public final void roundTrips() {
+    ForkJoinPool pool = new ForkJoinPool(2);
+    try {
+      for (boolean infix : new boolean[] { false, true }) {
+        Tokenizer tokenizer = new Tokenizer(SCRIPT);
+        Script script = (infix
+            ? new Parser(tokenizer.tokenizeInfix(), OperatorTable.standard())
+            : new Parser(tokenizer.tokenize())).parseScript("script", pool);
+
+        CompiledScript compiled = CompiledScript.read(CompiledScript.write(script));
+        assert compiled.units() == script.getSequence().length;
+        assert script.toString().equals(compiled.toScript("script").toString()) : compiled.toScript("script");
+        for (int i = 0; i < compiled.units(); i++) {
+          assert String.valueOf(script.getSequence()[i]).equals(String.valueOf(compiled.unit(i)));
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public final void readsNodesInPlace() {
+    SyntaxNode call = new FunctionCall("add", new SyntaxNode[] { new Decimal(2.5), new Decimal(-0.0) });
+    CompiledScript compiled = CompiledScript.read(CompiledScript.write(new Script("decimals",
+        new SyntaxNode[] { call, null })));
+
+    int root = compiled.root(0);
+    assert compiled.kind(root) == SyntaxTree.Kind.CALL;
+    assert compiled.symbol(root) == Symbols.intern("add");
+
+    int first = compiled.firstChild(root);
+    assert compiled.kind(first) == SyntaxTree.Kind.DECIMAL;
+    assert compiled.decimalValue(first) == 2.5;
+    assert compiled.nextSibling(compiled.nextSibling(first)) == -1;
+
+    assert call.equals(compiled.unit(0));
+    assert null == compiled.unit(1);
+  }
+
+  @Test
+  public final void rejectsCorruptInput() {
+    ByteBuffer buffer = CompiledScript.write(new Script("short", new SyntaxNode[] {
+        new FunctionCall("puts", new SyntaxNode[] { new Decimal(1) }) }));
+
+    ByteBuffer truncated = buffer.duplicate();
+    truncated.limit(truncated.limit() - 9);
+    ByteBuffer wrongMagic = ByteBuffer.allocate(buffer.remaining()).put(buffer.duplicate());
+    wrongMagic.flip();
+    wrongMagic.put(0, (byte) 0);
+
+    for (ByteBuffer corrupt : new ByteBuffer[] { truncated, wrongMagic, ByteBuffer.allocate(3) }) {
+      try {
+        CompiledScript.read(corrupt);
+        assert false;
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+
+    // Past the header, bad indices are found as nodes are read.
+    try {
+      CompiledScript.read(ByteBuffer.wrap(corruptPastHeader())).toScript("corrupt");
+      assert false;
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public final void corruptionNeverEscapes() {
+    ByteBuffer buffer = CompiledScript.write(new Script("s", new SyntaxNode[] {
+        new Parser(new Tokenizer("def f(String a, b): {\n  g(a, 1.5, 2)\n  b\n}").tokenize()).parse(),
+        new Parser(new Tokenizer("class P: {\n Int x \n}").tokenize()).parse() }));
+
+    // Any byte, set to any of these, either reads as some script or fails
+    // as corrupt, and doesn't loop.
+    for (int position = 0; position < buffer.limit(); position++) {
+      for (byte value : new byte[] { 0, 1, 3, 0x7F, (byte) 0x80, (byte) 0xFF }) {
+        ByteBuffer corrupt = ByteBuffer.allocate(buffer.limit()).put(buffer.duplicate());
+        corrupt.put(position, value);
+        corrupt.flip();
+        try {
+          CompiledScript.read(corrupt).toScript("corrupt");
+        } catch (IllegalArgumentException e) {
+          // expected
+        }
+      }
+    }
+  }
+
+  @Test
+  public final void cachedBySource() throws IOException {
+    File directory = File.createTempFile("purple", ".cache");
+    assert directory.delete();
+    try {
+      ScriptCache cache = new ScriptCache(directory, OperatorTable.standard());
+      String expected = new Parser(new Tokenizer("def f(a): {\n  a + 1\n}").tokenizeInfix(),
+          OperatorTable.standard()).parse().toString();
+
+      Script parsed = cache.load("script", SCRIPT);
+      assert directory.list().length == 1;
+      Script loaded = cache.load("script", SCRIPT);
+      assert directory.list().length == 1;
+      assert parsed.toString().equals(loaded.toString());
+
+      // Hashed by content, so any file with the same source hits.
+      File source = File.createTempFile("purple", ".p");
+      try {
+        FileOutputStream out = new FileOutputStream(source);
+        out.write(SCRIPT.getBytes("UTF-8"));
+        out.close();
+        assert loaded.toString().equals(cache.load(source).toString().replace(source.getName(), "script"));
+        assert directory.list().length == 1;
+      } finally {
+        source.delete();
+      }
+
+      // A different source, or way of parsing it, is compiled anew.
+      assert expected.equals(cache.load("other", "def f(a): {\n  a + 1\n}").getSequence()[0].toString());
+      assert directory.list().length == 2;
+      new ScriptCache(directory).load("script", SCRIPT);
+      new ScriptCache(directory, OperatorTable.standard().infix("+", 20, OperatorTable.Associativity.LEFT))
+          .load("script", SCRIPT);
+      assert directory.list().length == 4;
+
+      // A corrupt entry is compiled again.
+      for (File entry : directory.listFiles()) {
+        FileOutputStream out = new FileOutputStream(entry);
+        out.write(new byte[] { 1, 2, 3 });
+        out.close();
+      }
+      assert parsed.toString().equals(cache.load("script", SCRIPT).toString());
+      int valid = 0;
+      for (File entry : directory.listFiles()) {
+        try {
+          valid += CompiledScript.open(entry).units() > 0 ? 1 : 0;
+        } catch (IllegalArgumentException e) {
+          // still corrupt
+        }
+      }
+      assert valid == 1 : valid;
+
+      // As is one that's only corrupt past its header.
+      for (File entry : directory.listFiles()) {
+        FileOutputStream out = new FileOutputStream(entry);
+        out.write(corruptPastHeader());
+        out.close();
+      }
+      assert parsed.toString().equals(cache.load("script", SCRIPT).toString());
+    } finally {
+      File[] entries = directory.listFiles();
+      if (null != entries) {
+        for (File entry : entries) {
+          entry.delete();
+        }
+      }
+      directory.delete();
+    }
+  }
+
+  /**
+   * A compiled script with a good header, but not good nodes.
+   */
+  private static byte[] corruptPastHeader() {
+    ByteBuffer buffer = CompiledScript.write(new Script("s", new SyntaxNode[] {
+        new FunctionCall("f", new SyntaxNode[] { new Decimal(1) }) }));
+    for (int position = buffer.limit() - 1; position >= 0; position--) {
+      ByteBuffer corrupt = ByteBuffer.allocate(buffer.limit()).put(buffer.duplicate());
+      corrupt.put(position, (byte) 0x7F);
+      corrupt.flip();
+      CompiledScript compiled = CompiledScript.read(corrupt);
+      try {
+        compiled.toScript("corrupt");
+      } catch (IllegalArgumentException e) {
+        return corrupt.array();
+      }
+    }
+    throw new AssertionError();
+  }
+}
@@ -0,0 +1,113 @@
+package purple;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Checks the word-at-a-time delimiter scan against plain, byte by byte
+ * classification.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public class DelimiterScannerTest {
+  private static final String ALPHABET = "abcXYZ0123456789_+-*=<>  \t\t\n\r.,:(){}[]\u0000\u0007\u007f";
+
+  @Test
+  public final void wordScanMatchesScalarScan() {
+    Random random = new Random(42);
+    for (int run = 0; run < 200; run++) {
+      ByteBuffer bytes = randomBytes(random, random.nextInt(150));
+      int limit = bytes.limit();
+
+      for (int from = 0; from <= limit; from++) {
+        assert scalarNextBoundary(bytes, from, limit) == DelimiterScanner.nextBoundary(bytes, from, limit);
+        assert scalarSkipBlanks(bytes, from, limit) == DelimiterScanner.skipBlanks(bytes, from, limit);
+      }
+
+      for (int from = 0; from < limit; from++) {
+        long bitmap = DelimiterScanner.boundaryBitmap(bytes, from, limit);
+        for (int n = 0; n < 64; n++) {
+          boolean expected = from + n >= limit || DelimiterScanner.isBoundary(bytes.get(from + n));
+          assert expected == ((bitmap & (1L << n)) != 0) : "byte " + (from + n);
+        }
+      }
+    }
+  }
+
+  @Test
+  public final void wordScanLexesSameTokensAsScalarLexer() throws IOException {
+    Random random = new Random(7);
+    for (int run = 0; run < 50; run++) {
+      StringBuilder script = new StringBuilder();
+      for (int i = random.nextInt(400); i > 0; i--) {
+        script.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        if (random.nextInt(10) == 0) {
+          script.append("caf\u00e9 long_identifier_name\u3000  ");
+        }
+      }
+
+      File file = File.createTempFile("purple", ".p");
+      try {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+          out.write(script.toString().getBytes("UTF-8"));
+        } finally {
+          out.close();
+        }
+
+        for (int regionBits = 3; regionBits < 12; regionBits += 4) {
+          MappedSource source = MappedSource.open(file, regionBits);
+          OffHeapTokenBuffer scalar = new MappedTokenizer(source, false).lex();
+          OffHeapTokenBuffer words = new MappedTokenizer(source, true).lex();
+
+          try {
+            assert scalar.size() == words.size() : script;
+            for (long i = 0; i < scalar.size(); i++) {
+              assert scalar.get(i).equals(words.get(i)) : words.get(i);
+              assert scalar.start(i) == words.start(i);
+            }
+          } finally {
+            scalar.close();
+            words.close();
+          }
+        }
+      } finally {
+        file.delete();
+      }
+    }
+  }
+
+  private static ByteBuffer randomBytes(Random random, int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = random.nextInt(8) == 0
+          ? (byte) random.nextInt(256)
+          : (byte) ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+    }
+    return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private static int scalarNextBoundary(ByteBuffer bytes, int from, int limit) {
+    for (int i = from; i < limit; i++) {
+      if (DelimiterScanner.isBoundary(bytes.get(i))) {
+        return i;
+      }
+    }
+    return limit;
+  }
+
+  private static int scalarSkipBlanks(ByteBuffer bytes, int from, int limit) {
+    for (int i = from; i < limit; i++) {
+      if (bytes.get(i) != ' ' && bytes.get(i) != '\t') {
+        return i;
+      }
+    }
+    return limit;
+  }
+}
@@ -0,0 +1,178 @@
+package purple;
+
+import org.junit.Test;
+import purple.syntax.OperatorTable;
+import purple.syntax.Parser;
+import purple.syntax.PurpleGrammarException;
+import purple.syntax.model.FunctionCall;
+import purple.syntax.model.SyntaxNode;
+
+/**
+ * Tests the precedence (Pratt) expression parser, against the infix
+ * rewriting reducer and on its own.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public class ExpressionParserTest {
+  private static final String[] SCRIPTS = {
+      "11",
+      "x",
+      "puts(1 + 2)",
+      "11.increment",
+      "11.+(1)",
+      "11.+(stuff)",
+      "11.+(1, 5.add(1))",
+      "11 + 4",
+      "(11 +\n\n \n 4)",
+      "11 + 4 + 3",
+      "a + b + c",
+      "a compare_to b + c",
+      "puts (1 + (33 - 2))",
+      "def thunk:\n    58 + 2.flip \n",
+      "def thunk():\n    58 + 2.flip \n",
+      "def meth(arg):\n    58 + 2.flip \n",
+      "def meth(arg, a2, a3):\n    58 + 2.flip \n",
+      "def meth(String name, Int age, Phone num):\n    58 + 2.flip \n",
+      "def meth(arg):\n  puts(arg + 1)\n  arg - 2 \n",
+      "class Person: {\n String name \n Int age \n} \n",
+  };
+
+  @Test
+  public final void sameAsInfixRewrite() {
+    for (String script : SCRIPTS) {
+      String expected = parse(new Parser(new Tokenizer(script).tokenize()));
+      String pratt = parse(new Parser(new Tokenizer(script).tokenizeInfix(), OperatorTable.standard()));
+      String rewritten = parse(new Parser(new Tokenizer(script).tokenize(), OperatorTable.standard()));
+
+      assert expected.equals(pratt) : script + "\n" + expected + "\n" + pratt;
+      assert expected.equals(rewritten) : script + "\n" + expected + "\n" + rewritten;
+    }
+  }
+
+  @Test
+  public final void fewerTokensWithoutInfixRewrite() {
+    String script = "a + b + c compare_to d";
+    assert new Tokenizer(script).tokenizeInfix().size() == 7;
+    assert new Tokenizer(script).tokenize().size() == 7 + 3 * 3;
+  }
+
+  @Test
+  public final void precedenceAndAssociativity() {
+    OperatorTable operators = new OperatorTable(OperatorTable.Associativity.RIGHT)
+        .infix("+", 10, OperatorTable.Associativity.LEFT)
+        .infix("-", 10, OperatorTable.Associativity.LEFT)
+        .infix("*", 20, OperatorTable.Associativity.LEFT)
+        .infix("^", 30, OperatorTable.Associativity.RIGHT)
+        .infix("==", 5, OperatorTable.Associativity.LEFT);
+
+    assert "+(+(1, *(2, 3)), 4)".equals(infix("1 + 2 * 3 + 4", operators));
+    assert "-(-(a, b), c)".equals(infix("a - b - c", operators));
+    assert "^(a, ^(b, c))".equals(infix("a ^ b ^ c", operators));
+    assert "*(a, ^(b, c))".equals(infix("a * b ^ c", operators));
+    assert "==(+(a, b), *(c, d))".equals(infix("a + b == c * d", operators));
+    assert "*(+(a, b), c)".equals(infix("(a + b) * c", operators));
+    assert "+(a, *(flip(b), c))".equals(infix("a + b.flip * c", operators));
+
+    // Undeclared operators get the default precedence (and associativity).
+    assert "max(+(a, *(b, c)), d)".equals(infix("a + b * c max d", operators));
+  }
+
+  @Test
+  public final void freeCallsTakeArgumentLists() {
+    assert "puts(a, +(b, c))".equals(infix("puts(a, b + c)", OperatorTable.standard()));
+    assert "puts()".equals(infix("puts()", OperatorTable.standard()));
+  }
+
+  @Test
+  public final void malformedExpressions() {
+    for (String expression : new String[] { "(a + b", "a + b )", "a +", "a.", "puts(a b" }) {
+      boolean failed = false;
+      try {
+        infix(expression, OperatorTable.standard());
+      } catch (PurpleGrammarException e) {
+        failed = true;
+      }
+      assert failed : expression;
+    }
+  }
+
+  @Test
+  public final void nestsMillionsDeepWithoutRecursion() {
+    int depth = 1 << 20;
+    StringBuilder groups = new StringBuilder();
+    StringBuilder calls = new StringBuilder();
+    StringBuilder chain = new StringBuilder("x");
+    StringBuilder postfix = new StringBuilder("x");
+    for (int i = 0; i < depth; i++) {
+      groups.append('(');
+      calls.append("f(");
+      chain.append(" + x");
+      postfix.append(".y");
+    }
+    groups.append('1');
+    calls.append('1');
+    for (int i = 0; i < depth; i++) {
+      groups.append(')');
+      calls.append(')');
+    }
+
+    assert "1".equals(infix(groups.toString(), OperatorTable.standard()));
+    assert depthOf(parseInfix(calls.toString())) == depth;
+    assert depthOf(parseInfix(chain.toString())) == depth;
+    assert depthOf(parseInfix(postfix.toString())) == depth;
+
+    // Infix chains rewritten as postfix calls nest as deep.
+    SyntaxNode rewritten = new Parser(new Tokenizer(chain.toString()).tokenize(),
+        OperatorTable.standard()).parse();
+    assert depthOf(rewritten) == depth;
+  }
+
+  private static SyntaxNode parseInfix(String expression) {
+    return new Parser(new Tokenizer(expression).tokenizeInfix(), OperatorTable.standard()).parse();
+  }
+
+  /**
+   * How deeply calls are nested down the last argument.
+   */
+  private static int depthOf(SyntaxNode node) {
+    int depth = 0;
+    while (node instanceof FunctionCall) {
+      SyntaxNode[] args = ((FunctionCall) node).getArgs();
+      node = args[args.length - 1];
+      depth++;
+    }
+    return depth;
+  }
+
+  private static String infix(String expression, OperatorTable operators) {
+    return describe(new Parser(new Tokenizer(expression).tokenizeInfix(), operators).parse());
+  }
+
+  /**
+   * Renders just the shape of an expression tree, as name(args..).
+   */
+  private static String describe(SyntaxNode node) {
+    if (!(node instanceof FunctionCall)) {
+      String string = node.toString();
+      return string.substring(string.indexOf('=') + 1, string.length() - 1);
+    }
+
+    FunctionCall call = (FunctionCall) node;
+    StringBuilder out = new StringBuilder(call.getName()).append('(');
+    for (int i = 0; i < call.getArgs().length; i++) {
+      if (i > 0) {
+        out.append(", ");
+      }
+      out.append(describe(call.getArgs()[i]));
+    }
+    return out.append(')').toString();
+  }
+
+  private static String parse(Parser parser) {
+    try {
+      return String.valueOf(parser.parse());
+    } catch (PurpleGrammarException e) {
+      return e.getMessage();
+    }
+  }
+}
@@ -0,0 +1,224 @@
+package purple;
+
+import org.junit.Test;
+import purple.syntax.IncrementalParser;
+import purple.syntax.OperatorTable;
+import purple.syntax.PurpleGrammarException;
+import purple.syntax.model.SyntaxNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests reparsing a script after edits to its token stream, against
+ * parsing the edited stream from scratch.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public class IncrementalParserTest {
+  private static final String[] UNITS = {
+      "puts(1 + 2)",
+      "11.+(1, 5.add(1))",
+      "x.y(a compare_to b + c)",
+      "def thunk: {\n    58 + 2.flip \n}",
+      "def +(String name, Int age): { \n  58 + 2.flip \n }",
+      "def meth(arg): {\n  puts(arg + 1)\n  arg - 2 \n}",
+      "class Person: {\n String name \n Int age \n}",
+  };
+
+  private static final Token EOL = new Token("\n", TokenKind.EOL);
+
+  @Test
+  public final void editsMatchParsingFromScratch() {
+    Random random = new Random(19);
+    for (OperatorTable operators : new OperatorTable[] { null, OperatorTable.standard() }) {
+      List<List<Token>> lines = new ArrayList<List<Token>>();
+      for (int i = 0; i < 200; i++) {
+        lines.add(unit(random.nextInt(UNITS.length), operators));
+      }
+      IncrementalParser parser = new IncrementalParser("edited", concat(lines), operators);
+      assertSameAsFromScratch(parser, operators);
+
+      for (int edit = 0; edit < 300; edit++) {
+        int line = random.nextInt(lines.size());
+        int start = offsetOf(lines, line);
+        SyntaxNode[] before = parser.getScript().getSequence();
+
+        switch (random.nextInt(3)) {
+          case 0:
+            // Rewrite a line.
+            List<Token> replacement = unit(random.nextInt(UNITS.length), operators);
+            parser.edit(start, start + lines.get(line).size(), replacement);
+            lines.set(line, replacement);
+            assertReused(before, parser.getScript().getSequence(), line, 0);
+            break;
+          case 1:
+            // Insert a line before it.
+            List<Token> inserted = unit(random.nextInt(UNITS.length), operators);
+            parser.edit(start, start, inserted);
+            lines.add(line, inserted);
+            assertReused(before, parser.getScript().getSequence(), line, 1);
+            break;
+          default:
+            if (lines.size() > 1) {
+              parser.edit(start, start + lines.get(line).size(), new ArrayList<Token>());
+              lines.remove(line);
+              assertReused(before, parser.getScript().getSequence(), line, -1);
+            }
+        }
+
+        assert parser.getTokens().equals(concat(lines));
+        assertSameAsFromScratch(parser, operators);
+      }
+    }
+  }
+
+  @Test
+  public final void unclosedDefinitionRunsToTheEnd() {
+    OperatorTable operators = OperatorTable.standard();
+    List<List<Token>> lines = new ArrayList<List<Token>>();
+    for (int i = 0; i < 6; i++) {
+      lines.add(unit(i % 2 == 0 ? 3 : 0, operators));
+    }
+    IncrementalParser parser = new IncrementalParser("unclosed", concat(lines), operators);
+    assert parser.getScript().getSequence().length == 6;
+
+    // Delete the closing brace of the first def. It now runs on through
+    // the units after it, to the end of the script.
+    int brace = lines.get(0).size() - 2;
+    assert lines.get(0).get(brace).is(TokenKind.RBRACE);
+    try {
+      parser.edit(brace, brace + 1, new ArrayList<Token>());
+      assert false;
+    } catch (PurpleGrammarException e) {
+      // The rest of the script is now the def's body, which is missing its brace.
+      assert e.getMessage().startsWith("Missing }") : e.getMessage();
+    }
+
+    // A failed edit changes nothing, so the brace is still there.
+    assert parser.getTokens().equals(concat(lines));
+    assert parser.getScript().getSequence().length == 6;
+
+    // Retyping it only reparses the one def.
+    SyntaxNode[] before = parser.getScript().getSequence();
+    parser.edit(brace, brace + 1, lines.get(0).subList(brace, brace + 1));
+    assertReused(before, parser.getScript().getSequence(), 0, 0);
+    assertSameAsFromScratch(parser, operators);
+  }
+
+  @Test
+  public final void lineRunsOnWithoutItsEol() {
+    OperatorTable operators = OperatorTable.standard();
+    List<List<Token>> lines = new ArrayList<List<Token>>();
+    for (int i = 0; i < 4; i++) {
+      lines.add(unit(i % 3, operators));
+    }
+    IncrementalParser parser = new IncrementalParser("joined", concat(lines), operators);
+
+    // Deleting the EOL joins the first line with the second, same as
+    // parsing them from scratch.
+    int eol = lines.get(0).size() - 1;
+    List<Token> joined = concat(lines);
+    joined.remove(eol);
+    String expected = null;
+    try {
+      new IncrementalParser("scratch", joined, operators);
+    } catch (PurpleGrammarException e) {
+      expected = e.getMessage();
+    }
+    try {
+      parser.edit(eol, eol + 1, new ArrayList<Token>());
+      assert false;
+    } catch (PurpleGrammarException e) {
+      assert e.getMessage().equals(expected) : e.getMessage();
+    }
+    assert parser.getTokens().equals(concat(lines));
+  }
+
+  @Test
+  public final void blankLines() {
+    OperatorTable operators = OperatorTable.standard();
+    List<Token> tokens = new ArrayList<Token>();
+    tokens.add(EOL);
+    tokens.addAll(unit(0, operators));
+    tokens.add(EOL);
+    tokens.addAll(unit(1, operators));
+
+    IncrementalParser parser = new IncrementalParser("blank", tokens, operators);
+    assert parser.getScript().getSequence().length == 2;
+
+    // Blank out the first line, then the second.
+    List<Token> blank = new ArrayList<Token>();
+    blank.add(EOL);
+    SyntaxNode second = parser.getScript().getSequence()[1];
+    parser.edit(1, 1 + unit(0, operators).size(), blank);
+    assert parser.getScript().getSequence().length == 1;
+    assert parser.getScript().getSequence()[0] == second;
+    assertSameAsFromScratch(parser, operators);
+
+    parser.edit(0, parser.size(), blank);
+    assert parser.getScript().getSequence().length == 0;
+    assert parser.size() == 1;
+
+    parser.edit(1, 1, unit(2, operators));
+    assert parser.getScript().getSequence().length == 1;
+    assertSameAsFromScratch(parser, operators);
+  }
+
+  private static void assertSameAsFromScratch(IncrementalParser parser, OperatorTable operators) {
+    SyntaxNode[] expected = new IncrementalParser("scratch", parser.getTokens(), operators)
+        .getScript().getSequence();
+    SyntaxNode[] actual = parser.getScript().getSequence();
+    assert expected.length == actual.length : actual.length;
+    assert describe(expected).equals(describe(actual)) : describe(actual);
+  }
+
+  /**
+   * All the nodes but that of the edited line (which a line inserted
+   * before it goes into) are the same objects as before, allowing for the
+   * given number of lines added.
+   */
+  private static void assertReused(SyntaxNode[] before, SyntaxNode[] after, int line, int added) {
+    assert after.length == before.length + added;
+    for (int i = 0; i < line; i++) {
+      assert before[i] == after[i] : i;
+    }
+    for (int i = line + 1; i < before.length; i++) {
+      assert before[i] == after[i + added] : i;
+    }
+  }
+
+  private static String describe(SyntaxNode[] nodes) {
+    StringBuilder out = new StringBuilder();
+    for (SyntaxNode node : nodes) {
+      out.append(node).append('\n');
+    }
+    return out.toString();
+  }
+
+  private static List<Token> unit(int index, OperatorTable operators) {
+    Tokenizer tokenizer = new Tokenizer(UNITS[index]);
+    List<Token> tokens = new ArrayList<Token>(null == operators
+        ? tokenizer.tokenize()
+        : tokenizer.tokenizeInfix());
+    tokens.add(EOL);
+    return tokens;
+  }
+
+  private static List<Token> concat(List<List<Token>> lines) {
+    List<Token> tokens = new ArrayList<Token>();
+    for (List<Token> line : lines) {
+      tokens.addAll(line);
+    }
+    return tokens;
+  }
+
+  private static int offsetOf(List<List<Token>> lines, int line) {
+    int offset = 0;
+    for (int i = 0; i < line; i++) {
+      offset += lines.get(i).size();
+    }
+    return offset;
+  }
+}
@@ -0,0 +1,46 @@
+package purple;
+
+import org.junit.Test;
+
+/**
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public class KeywordsTest {
+
+  @Test
+  public final void keywordsAndOperators() {
+    assert TokenKind.MODULE == TokenKind.resolve("module");
+    assert TokenKind.REQUIRE == TokenKind.resolve("require");
+    assert TokenKind.DEF == TokenKind.resolve("def");
+    assert TokenKind.CLASS == TokenKind.resolve("class");
+    assert TokenKind.THIN_ARROW == TokenKind.resolve("->");
+    assert TokenKind.FAT_ARROW == TokenKind.resolve("=>");
+  }
+
+  @Test
+  public final void nearMissesAreIdentifiers() {
+    for (String ident : new String[] { "d", "df", "deaf", "dxf", "class_", "modules", "-", ">",
+        "-->", "=<", "<-", "requir", "equire", "+", "flip", "x" }) {
+      assert TokenKind.IDENT == TokenKind.resolve(ident) : ident;
+    }
+
+    assert TokenKind.TYPE_IDENT == TokenKind.resolve("Def");
+    assert TokenKind.TYPE_IDENT == TokenKind.resolve("Class");
+  }
+
+  @Test
+  public final void keywordsWithinLargerSource() {
+    String source = "x.def(class)->";
+    assert TokenKind.IDENT == TokenKind.resolve(source, 0, 1);
+    assert TokenKind.DEF == TokenKind.resolve(source, 2, 3);
+    assert TokenKind.CLASS == TokenKind.resolve(source, 6, 5);
+    assert TokenKind.THIN_ARROW == TokenKind.resolve(source, 12, 2);
+    assert TokenKind.IDENT == TokenKind.resolve(source, 1, 4);
+  }
+
+  @Test
+  public final void emptyIsNoKeyword() {
+    assert null == Keywords.get("");
+    assert null == Keywords.get("x.def", 5, 0);
+  }
+}
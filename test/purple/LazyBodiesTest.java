@@ -0,0 +1,198 @@
+package purple;
+
+import org.junit.Test;
+import purple.syntax.NodeListener;
+import purple.syntax.OperatorTable;
+import purple.syntax.Parser;
+import purple.syntax.PurpleGrammarException;
+import purple.syntax.model.FunctionDef;
+import purple.syntax.model.NodePrinter;
+import purple.syntax.model.NodeWalker;
+import purple.syntax.model.Script;
+import purple.syntax.model.SyntaxNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tests parsing function bodies only when they are asked for.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public class LazyBodiesTest {
+  private static final String[] DEFS = {
+      "def thunk: {\n    58 + 2.flip \n}",
+      "def +(String name, Int age): { \n  58 + 2.flip \n }",
+      "def meth(arg): {\n  puts(arg + 1)\n  arg - 2 \n}",
+      "def pair(Int a, b): {\n  x.y(a compare_to b + 1)\n}",
+      "def f(a, b): a + b",
+  };
+
+  @Test
+  public final void parsesToTheSameModel() {
+    for (String def : DEFS) {
+      Tokenizer tokenizer = new Tokenizer(def);
+      FunctionDef lazy = (FunctionDef) new Parser(tokenizer.tokenize()).lazyBodies().parse();
+      assert !lazy.isBodyParsed();
+      assert lazy.toString().endsWith(", body=<unparsed>}") : lazy;
+      assert lazy.toString().equals(new NodePrinter().print(lazy));
+      assert !lazy.isBodyParsed();
+
+      lazy.getBody();
+      assert String.valueOf(new Parser(tokenizer.tokenize()).parse()).equals(lazy.toString()) : def;
+      assert lazy.isBodyParsed();
+
+      lazy = (FunctionDef) new Parser(tokenizer.tokenizeInfix(), OperatorTable.standard())
+          .lazyBodies()
+          .parse();
+      assert !lazy.isBodyParsed();
+      assert null != lazy.getBody();
+      assert String.valueOf(new Parser(tokenizer.tokenizeInfix(), OperatorTable.standard()).parse())
+          .equals(lazy.toString()) : def;
+    }
+  }
+
+  @Test
+  public final void walksWithoutParsing() {
+    FunctionDef def = (FunctionDef) new Parser(new Tokenizer(DEFS[2]).tokenizeInfix(), OperatorTable.standard())
+        .lazyBodies()
+        .parse();
+    final int[] visited = new int[1];
+    NodeWalker.Visitor<Void> counter = new NodeWalker.Visitor<Void>() {
+      @Override
+      public boolean enter(SyntaxNode node, Void context) {
+        visited[0]++;
+        return true;
+      }
+
+      @Override
+      public void exit(SyntaxNode node, Void context) {
+      }
+    };
+
+    new NodeWalker().walk(def, counter, null);
+    assert visited[0] == 2 : visited[0];
+    assert !def.isBodyParsed();
+
+    visited[0] = 0;
+    new NodeWalker().parseBodies().walk(def, counter, null);
+    assert visited[0] > 2;
+    assert def.isBodyParsed();
+  }
+
+  @Test
+  public final void bodyHoldsOnlyItsOwnText() {
+    List<Token> tokens = new ArrayList<Token>();
+    for (Token token : new Tokenizer("puts(1)\n" + DEFS[2] + "\nputs(2)").tokenize()) {
+      tokens.add(token);
+    }
+    List<Token> body = Token.compact(tokens.subList(10, 20));
+
+    assert body.equals(tokens.subList(10, 20));
+    for (Token token : body) {
+      assert token.getStart() + token.getLength() <= DEFS[2].length() : token;
+    }
+  }
+
+  @Test
+  public final void errorsInBodyFoundWhenParsed() {
+    FunctionDef def = (FunctionDef) new Parser(new Tokenizer("def broken(a): {\n  a.(b)\n}").tokenizeInfix(),
+        OperatorTable.standard())
+        .lazyBodies()
+        .parse();
+    assert "broken".equals(def.getName());
+
+    for (int i = 0; i < 2; i++) {
+      try {
+        def.getBody();
+        assert false;
+      } catch (PurpleGrammarException e) {
+        assert "Expected function name after .".equals(e.getMessage()) : e.getMessage();
+      }
+      assert !def.isBodyParsed();
+    }
+  }
+
+  @Test
+  public final void bodyParsedOnceAcrossThreads() throws InterruptedException {
+    final FunctionDef def = (FunctionDef) new Parser(new Tokenizer(DEFS[2]).tokenizeInfix(),
+        OperatorTable.standard())
+        .lazyBodies()
+        .parse();
+
+    final CountDownLatch start = new CountDownLatch(1);
+    final SyntaxNode[] bodies = new SyntaxNode[8];
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < bodies.length; i++) {
+      final int thread = i;
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+          bodies[thread] = def.getBody();
+        }
+      });
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    for (SyntaxNode body : bodies) {
+      assert null != body;
+      assert bodies[0] == body;
+    }
+  }
+
+  @Test
+  public final void lazyScripts() {
+    StringBuilder script = new StringBuilder();
+    for (int i = 0; i < 500; i++) {
+      script.append(DEFS[i % DEFS.length]).append("\nputs(1 + 2)\n");
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      Script parsed = new Parser(new Tokenizer(script.toString()).tokenizeInfix(), OperatorTable.standard())
+          .lazyBodies()
+          .parseScript("lazy", pool);
+      assertSameAsEager(parsed.getSequence());
+    } finally {
+      pool.shutdown();
+    }
+
+    // Streamed, the source lets go of a body's tokens before it is parsed.
+    final List<SyntaxNode> streamed = new ArrayList<SyntaxNode>();
+    new Parser(new Tokenizer(script.toString()).streamInfix(), OperatorTable.standard())
+        .lazyBodies()
+        .parseScript(new NodeListener() {
+          @Override
+          public void parsed(SyntaxNode node) {
+            streamed.add(node);
+          }
+        });
+    assertSameAsEager(streamed.toArray(new SyntaxNode[streamed.size()]));
+  }
+
+  private static void assertSameAsEager(SyntaxNode[] nodes) {
+    assert nodes.length == 1000 : nodes.length;
+    for (int i = 0; i < nodes.length; i += 2) {
+      FunctionDef def = (FunctionDef) nodes[i];
+      assert !def.isBodyParsed();
+      def.getBody();
+
+      String eager = String.valueOf(new Parser(new Tokenizer(DEFS[(i / 2) % DEFS.length]).tokenizeInfix(),
+          OperatorTable.standard()).parse());
+      assert eager.equals(def.toString()) : def;
+    }
+  }
+}
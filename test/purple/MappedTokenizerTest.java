@@ -0,0 +1,63 @@
+package purple;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Checks that lexing a mapped file straight from its UTF-8 bytes gives
+ * the same token stream as lexing it from a String.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public class MappedTokenizerTest {
+  private static final String[] SCRIPTS = {
+      "",
+      "x + y",
+      "11.0.increment",
+      "\n\n\n(\n 1 \n+ \n2.4)\n\n",
+      "def thunk: \n 1.0",
+      "class Person: {\n String name \n Int age \n} \n def +(a, b): a + b",
+      "caf\u00e9 + \u00c9clair\u3000\u0663\u0664 -> x => \ud835\udc00y",
+  };
+
+  @Test
+  public final void sameRawTokensAsStringTokenizer() throws IOException {
+    for (String script : SCRIPTS) {
+      List<Token> expected = new Tokenizer(script).lex().toList();
+      File file = write(script);
+      try {
+
+        // Tiny regions, so chars and tokens straddle the mappings.
+        for (int regionBits = 0; regionBits < 4; regionBits++) {
+          OffHeapTokenBuffer tokens = new MappedTokenizer(MappedSource.open(file, regionBits)).lex();
+
+          try {
+            assert tokens.size() == expected.size() : script;
+            for (int i = 0; i < expected.size(); i++) {
+              assert expected.get(i).equals(tokens.get(i)) : tokens.get(i);
+            }
+          } finally {
+            tokens.close();
+          }
+        }
+      } finally {
+        file.delete();
+      }
+    }
+  }
+
+  private static File write(String script) throws IOException {
+    File file = File.createTempFile("purple", ".p");
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(script.getBytes("UTF-8"));
+    } finally {
+      out.close();
+    }
+    return file;
+  }
+}
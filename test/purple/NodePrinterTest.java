@@ -0,0 +1,107 @@
+package purple;
+
+import org.junit.Test;
+import purple.interpret.Interpreter;
+import purple.syntax.OperatorTable;
+import purple.syntax.Parser;
+import purple.syntax.model.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tests printing syntax nodes out as they are walked.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public class NodePrinterTest {
+  private static final String SCRIPT =
+      "puts(1 + 2.5)\n"
+      + "11.+(1, 5.add(1))\n"
+      + "x.y(a compare_to b + c)\n"
+      + "def thunk: {\n    58 + 2.flip \n}\n"
+      + "def +(String name, Int age): { \n  58 + 2.flip \n }\n"
+      + "def meth(arg): {\n  puts(arg + 1)\n  arg - 2 \n}\n"
+      + "class Person: {\n String name \n Int age \n}\n";
+
+  @Test
+  public final void printsSameAsToString() throws IOException {
+    ForkJoinPool pool = new ForkJoinPool(1);
+    try {
+      NodePrinter printer = new NodePrinter();
+      for (boolean infix : new boolean[] { false, true }) {
+        Tokenizer tokenizer = new Tokenizer(SCRIPT);
+        Script script = (infix
+            ? new Parser(tokenizer.tokenizeInfix(), OperatorTable.standard())
+            : new Parser(tokenizer.tokenize())).parseScript("script", pool);
+
+        StringWriter out = new StringWriter();
+        printer.print(script, out);
+        assert script.toString().equals(out.toString()) : out;
+      }
+    } finally {
+      pool.shutdown();
+    }
+
+    // Missing pieces.
+    ClassDef type = new ClassDef("Int", null);
+    SyntaxNode[] nodes = {
+        new Script(null, null),
+        new Script("gaps", new SyntaxNode[] { null, new Decimal(2.5), null }),
+        new FunctionCall("f", null),
+        new FunctionDef("g", new Argument[0], (SyntaxNode) null),
+        new FunctionDef("h", new Argument[] { new Argument("a", null) }, new DoBlock(new SyntaxNode[0])),
+        type,
+        new ClassDef("Pair", Arrays.asList(new FieldDef("left", type), new FieldDef("right", type))),
+    };
+    for (SyntaxNode node : nodes) {
+      assert node.toString().equals(new NodePrinter().print(node)) : new NodePrinter().print(node);
+    }
+    assert "null".equals(new NodePrinter().print(null));
+
+    assert new Parser(new Tokenizer("puts(1, 2)").tokenize()).parse().toString()
+        .equals(new Interpreter().interpret("puts(1, 2)"));
+  }
+
+  @Test
+  public final void indentsAndElides() {
+    SyntaxNode call = new FunctionCall("puts", new SyntaxNode[] {
+        new IntegerLiteral(1),
+        new FunctionCall("+", new SyntaxNode[] { new Variable("a"), new IntegerLiteral(2) }),
+        new FunctionCall("f", new SyntaxNode[0]),
+    });
+
+    assert ("FunctionCall{name='puts', args=[\n"
+        + "  IntegerLiteral{value=1},\n"
+        + "  FunctionCall{name='+', args=[\n"
+        + "    Variable{name=a},\n"
+        + "    IntegerLiteral{value=2}\n"
+        + "  ]},\n"
+        + "  FunctionCall{name='f', args=[]}\n"
+        + "]}").equals(new NodePrinter().indent(2).print(call)) : new NodePrinter().indent(2).print(call);
+
+    assert ("FunctionCall{name='puts', args=[IntegerLiteral{value=1}, "
+        + "FunctionCall{name='+', args=[..., ...]}, FunctionCall{name='f', args=[]}]}")
+        .equals(new NodePrinter().maxDepth(1).print(call));
+    assert "Variable{name=a}".equals(new NodePrinter().maxDepth(0).print(new Variable("a")));
+    assert ("FunctionCall{name='puts', args=[..., ..., ...]}")
+        .equals(new NodePrinter().maxDepth(0).print(call));
+  }
+
+  @Test
+  public final void printsMillionsDeepWithoutRecursion() {
+    SyntaxNode node = new IntegerLiteral(0);
+    int depth = 1000000;
+    for (int i = 1; i <= depth; i++) {
+      node = new FunctionCall("-", new SyntaxNode[] { node });
+    }
+
+    String printed = new NodePrinter().print(node);
+    String call = "FunctionCall{name='-', args=[";
+    assert printed.length() == depth * (call.length() + 2) + "IntegerLiteral{value=0}".length();
+    assert printed.startsWith(call + call);
+    assert printed.indexOf("[IntegerLiteral{value=0}]}]}") == depth * call.length() - 1;
+  }
+}
@@ -0,0 +1,210 @@
+package purple;
+
+import org.junit.Test;
+import purple.syntax.OperatorTable;
+import purple.syntax.Parser;
+import purple.syntax.model.*;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tests dispatching syntax nodes to a visitor, and walking trees of them.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public class NodeVisitorTest {
+  private static final String SCRIPT =
+      "puts(1 + 2.5)\n"
+      + "def meth(String name, arg): {\n  puts(arg + 1)\n  arg - 2 \n}\n"
+      + "class Person: {\n String name \n Int age \n}\n";
+
+  @Test
+  public final void dispatchesOnNodeType() {
+    Script script = parse(SCRIPT);
+    StringBuilder out = new StringBuilder();
+    new NodeWalker().walk(script, new NodeWalker.Visitor<StringBuilder>() {
+      @Override
+      public boolean enter(SyntaxNode node, StringBuilder out) {
+        out.append(node.accept(NAMES, null)).append(' ');
+        return true;
+      }
+
+      @Override
+      public void exit(SyntaxNode node, StringBuilder out) {
+      }
+    }, out);
+
+    assert ("script call:puts call:+ int:1 decimal:2.5 "
+        + "def:meth arg:name arg:arg do call:puts call:+ var:arg int:1 call:- var:arg int:2 "
+        + "class:Person field:name field:age ").equals(out.toString()) : out;
+  }
+
+  @Test
+  public final void entersAndExitsInOrder() {
+    final StringBuilder out = new StringBuilder();
+    NodeWalker.Visitor<Void> visitor = new NodeWalker.Visitor<Void>() {
+      @Override
+      public boolean enter(SyntaxNode node, Void context) {
+        out.append('(').append(node.accept(NAMES, null));
+
+        // Skip the insides of definitions.
+        return !(node instanceof FunctionDef);
+      }
+
+      @Override
+      public void exit(SyntaxNode node, Void context) {
+        out.append(')');
+      }
+    };
+
+    NodeWalker walker = new NodeWalker();
+    walker.walk(parse(SCRIPT), visitor, null);
+    assert ("(script(call:puts(call:+(int:1)(decimal:2.5)))(def:meth)"
+        + "(class:Person(field:name)(field:age)))").equals(out.toString()) : out;
+
+    // Missing expressions are skipped, and the walker can be used again.
+    out.setLength(0);
+    walker.walk(new DoBlock(new SyntaxNode[] { null, new Variable("a"), null }), visitor, null);
+    assert "(do(var:a))".equals(out.toString()) : out;
+  }
+
+  @Test
+  public final void walksMillionsDeepWithoutRecursion() {
+    SyntaxNode node = new IntegerLiteral(0);
+    int depth = 2000000;
+    for (int i = 1; i <= depth; i++) {
+      node = new FunctionCall("+", new SyntaxNode[] { new IntegerLiteral(i), node });
+    }
+
+    // Fold the sum of the literals, with a visitor for the literals alone.
+    final long[] sum = new long[1];
+    final NodeVisitor<Void, long[]> literals = new Literals();
+    new NodeWalker().walk(node, new NodeWalker.Visitor<long[]>() {
+      @Override
+      public boolean enter(SyntaxNode node, long[] sum) {
+        node.accept(literals, sum);
+        return true;
+      }
+
+      @Override
+      public void exit(SyntaxNode node, long[] sum) {
+      }
+    }, sum);
+    assert sum[0] == (long) depth * (depth + 1) / 2 : sum[0];
+  }
+
+  private static Script parse(String script) {
+    ForkJoinPool pool = new ForkJoinPool(1);
+    try {
+      return new Parser(new Tokenizer(script).tokenizeInfix(), OperatorTable.standard())
+          .parseScript("script", pool);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static final NodeVisitor<String, Void> NAMES = new NodeVisitor<String, Void>() {
+    @Override
+    public String visit(IntegerLiteral node, Void context) {
+      return "int:" + node.getValue();
+    }
+
+    @Override
+    public String visit(Decimal node, Void context) {
+      return "decimal:" + node.getValue();
+    }
+
+    @Override
+    public String visit(Variable node, Void context) {
+      return "var:" + node.getName();
+    }
+
+    @Override
+    public String visit(FunctionCall node, Void context) {
+      return "call:" + node.getName();
+    }
+
+    @Override
+    public String visit(DoBlock node, Void context) {
+      return "do";
+    }
+
+    @Override
+    public String visit(FunctionDef node, Void context) {
+      return "def:" + node.getName();
+    }
+
+    @Override
+    public String visit(Argument node, Void context) {
+      return "arg:" + node.getName();
+    }
+
+    @Override
+    public String visit(ClassDef node, Void context) {
+      return "class:" + node.getName();
+    }
+
+    @Override
+    public String visit(FieldDef node, Void context) {
+      return "field:" + node.getName();
+    }
+
+    @Override
+    public String visit(Script node, Void context) {
+      return "script";
+    }
+  };
+
+  private static final class Literals implements NodeVisitor<Void, long[]> {
+    @Override
+    public Void visit(IntegerLiteral node, long[] sum) {
+      sum[0] += node.getValue();
+      return null;
+    }
+
+    @Override
+    public Void visit(Decimal node, long[] sum) {
+      return null;
+    }
+
+    @Override
+    public Void visit(Variable node, long[] sum) {
+      return null;
+    }
+
+    @Override
+    public Void visit(FunctionCall node, long[] sum) {
+      return null;
+    }
+
+    @Override
+    public Void visit(DoBlock node, long[] sum) {
+      return null;
+    }
+
+    @Override
+    public Void visit(FunctionDef node, long[] sum) {
+      return null;
+    }
+
+    @Override
+    public Void visit(Argument node, long[] sum) {
+      return null;
+    }
+
+    @Override
+    public Void visit(ClassDef node, long[] sum) {
+      return null;
+    }
+
+    @Override
+    public Void visit(FieldDef node, long[] sum) {
+      return null;
+    }
+
+    @Override
+    public Void visit(Script node, long[] sum) {
+      return null;
+    }
+  }
+}
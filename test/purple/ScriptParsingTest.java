@@ -0,0 +1,135 @@
+package purple;
+
+import org.junit.Test;
+import purple.syntax.NodeListener;
+import purple.syntax.OperatorTable;
+import purple.syntax.Parser;
+import purple.syntax.PurpleGrammarException;
+import purple.syntax.model.Script;
+import purple.syntax.model.SyntaxNode;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tests parsing whole scripts, a top-level unit at a time in parallel.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public class ScriptParsingTest {
+  private static final String[] UNITS = {
+      "puts(1 + 2)",
+      "11.+(1, 5.add(1))",
+      "x.y(a compare_to b + c)",
+      "(11 +\n\n \n 4)",
+      "def thunk: {\n    58 + 2.flip \n}",
+      "def +(String name, Int age): { \n  58 + 2.flip \n }",
+      "def meth(arg): {\n  puts(arg + 1)\n  arg - 2 \n}",
+      "def f(a, b): a + b",
+      "class Person: {\n String name \n Int age \n}",
+  };
+
+  @Test
+  public final void unitsParsedInSourceOrder() {
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      StringBuilder script = new StringBuilder();
+      int count = 3000;
+      for (int i = 0; i < count; i++) {
+        script.append(UNITS[i % UNITS.length]).append(i % 2 == 0 ? "\n" : "\n\n");
+      }
+
+      Script parsed = new Parser(new Tokenizer(script.toString()).tokenize()).parseScript("units", pool);
+      assertUnits(parsed, count, false);
+
+      parsed = new Parser(new Tokenizer(script.toString()).tokenizeInfix(), OperatorTable.standard())
+          .parseScript("units", pool);
+      assertUnits(parsed, count, true);
+
+      assert "units".equals(parsed.getName());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public final void streamedUnitsInBoundedTokens() {
+    StringBuilder script = new StringBuilder();
+    int count = 20000;
+    for (int i = 0; i < count; i++) {
+      script.append(UNITS[i % UNITS.length]).append('\n');
+    }
+
+    // Each unit as it would be parsed on its own, see unitsParsedInSourceOrder().
+    final String[] expected = new String[UNITS.length];
+    for (int i = 0; i < UNITS.length; i++) {
+      expected[i] = String.valueOf(new Parser(new Tokenizer(UNITS[i]).tokenizeInfix(),
+          OperatorTable.standard()).parse());
+    }
+
+    final TokenSource tokens = new Tokenizer(script.toString()).streamInfix();
+    final int[] parsed = new int[1];
+    final int[] retained = new int[1];
+    new Parser(tokens, OperatorTable.standard()).parseScript(new NodeListener() {
+      @Override
+      public void parsed(SyntaxNode node) {
+        String unit = String.valueOf(node);
+        assert expected[parsed[0] % UNITS.length].equals(unit) : parsed[0] + ": " + unit;
+        parsed[0]++;
+        retained[0] = Math.max(retained[0], tokens.retained());
+      }
+    });
+
+    assert parsed[0] == count;
+    assert retained[0] < 100 : retained[0];
+  }
+
+  @Test
+  public final void firstFailingUnitIsReported() {
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      StringBuilder script = new StringBuilder();
+      for (int i = 0; i < 2000; i++) {
+        script.append(i == 1500 ? "a.(b)" : i == 1800 ? "a +" : "puts(a + b, c)").append('\n');
+      }
+
+      try {
+        new Parser(new Tokenizer(script.toString()).tokenizeInfix(), OperatorTable.standard())
+            .parseScript("broken", pool);
+        assert false;
+      } catch (PurpleGrammarException e) {
+        assert "Expected function name after .".equals(e.getMessage()) : e.getMessage();
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public final void emptyScript() {
+    ForkJoinPool pool = new ForkJoinPool(2);
+    try {
+      Script parsed = new Parser(new Tokenizer("\n\n").tokenize()).parseScript("empty", pool);
+      assert parsed.getSequence().length == 0;
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static void assertUnits(Script script, int count, boolean infix) {
+    SyntaxNode[] sequence = script.getSequence();
+    assert sequence.length == count : sequence.length;
+
+    String[] expected = new String[UNITS.length];
+    for (int i = 0; i < UNITS.length; i++) {
+      Tokenizer tokenizer = new Tokenizer(UNITS[i]);
+      expected[i] = String.valueOf(infix
+          ? new Parser(tokenizer.tokenizeInfix(), OperatorTable.standard()).parse()
+          : new Parser(tokenizer.tokenize()).parse());
+    }
+
+    for (int i = 0; i < count; i++) {
+      String unit = String.valueOf(sequence[i]);
+      assert expected[i % UNITS.length].equals(unit) : i + ": " + unit;
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package purple;
+
+import org.junit.Test;
+import purple.syntax.OperatorTable;
+import purple.syntax.Parser;
+import purple.syntax.model.Decimal;
+import purple.syntax.model.DoBlock;
+import purple.syntax.model.FunctionCall;
+import purple.syntax.model.FunctionDef;
+import purple.syntax.model.IntegerLiteral;
+import purple.syntax.model.Nodes;
+import purple.syntax.model.Script;
+import purple.syntax.model.SyntaxNode;
+import purple.syntax.model.Variable;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tests structural equality of syntax nodes, and sharing equal ones.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public class SharedNodesTest {
+  private static final String[] UNITS = {
+      "puts(1 + 2)",
+      "11.+(1, 5.add(1))",
+      "x.y(a compare_to b + c)",
+      "def meth(arg): {\n  puts(arg + 1)\n  arg - 2 \n}",
+      "puts(arg + 1)",
+  };
+
+  @Test
+  public final void structuralEquality() {
+    SyntaxNode call = new FunctionCall("+", new SyntaxNode[] { new IntegerLiteral(1), new Variable("a") });
+    SyntaxNode same = new FunctionCall("+", new SyntaxNode[] { new IntegerLiteral(1), new Variable("a") });
+    assert call.equals(same);
+    assert call.hashCode() == same.hashCode();
+
+    assert !call.equals(new FunctionCall("-", new SyntaxNode[] { new IntegerLiteral(1), new Variable("a") }));
+    assert !call.equals(new FunctionCall("+", new SyntaxNode[] { new IntegerLiteral(2), new Variable("a") }));
+    assert !call.equals(new FunctionCall("+", new SyntaxNode[] { new IntegerLiteral(1) }));
+    assert new Decimal(1.5).equals(new Decimal(1.5));
+    assert !new Decimal(1.5).equals(new Decimal(1.25));
+    assert !new IntegerLiteral(1).equals(new Decimal(1));
+    assert !new Variable("a").equals(new Variable("b"));
+
+    DoBlock block = new DoBlock(new SyntaxNode[] { call, new IntegerLiteral(3) });
+    assert block.equals(new DoBlock(new SyntaxNode[] { same, new IntegerLiteral(3) }));
+    assert block.hashCode() == new DoBlock(new SyntaxNode[] { same, new IntegerLiteral(3) }).hashCode();
+    assert block.hashCode() != new DoBlock(new SyntaxNode[] { same }).hashCode();
+    assert !block.equals(new FunctionCall("DOBLOCK", new SyntaxNode[0]));
+    assert !new FunctionCall("DOBLOCK", new SyntaxNode[0]).equals(block);
+  }
+
+  @Test
+  public final void factoryBuildsEachNodeOnce() {
+    Nodes nodes = new Nodes();
+    IntegerLiteral one = nodes.integer(1);
+    assert one == nodes.integer(1);
+    assert nodes.integer(2) != one;
+
+    SyntaxNode call = nodes.call(Symbols.intern("+"), new SyntaxNode[] { one, nodes.variable(Symbols.intern("a")) });
+    assert call == nodes.call(Symbols.intern("+"), new SyntaxNode[] { nodes.integer(1), nodes.variable(Symbols.intern("a")) });
+    assert call == nodes.share(new FunctionCall("+", new SyntaxNode[] { new IntegerLiteral(1), new Variable("a") }));
+    assert nodes.size() == 4 : nodes.size();
+
+    // Shared nodes can't be changed through what they hand out.
+    SyntaxNode[] args = ((FunctionCall) call).getArgs();
+    args[0] = nodes.integer(2);
+    assert one == ((FunctionCall) call).getArgs()[0];
+    SyntaxNode[] sequence = { call };
+    DoBlock block = nodes.doBlock(sequence);
+    sequence[0] = one;
+    block.getSequence()[0] = one;
+    assert call == block.getSequence()[0];
+    assert block == nodes.doBlock(new SyntaxNode[] { call });
+    assert block == nodes.share(new DoBlock(new SyntaxNode[] { call }));
+    assert nodes.decimal(-0.0) != nodes.decimal(0.0);
+    assert nodes.decimal(Double.NaN) == nodes.decimal(Double.NaN);
+  }
+
+  @Test
+  public final void repeatedUnitsShared() {
+    StringBuilder script = new StringBuilder();
+    int count = 2000;
+    for (int i = 0; i < count; i++) {
+      script.append(UNITS[i % UNITS.length]).append('\n');
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (boolean infix : new boolean[] { false, true }) {
+        Tokenizer tokenizer = new Tokenizer(script.toString());
+        Parser plain = infix
+            ? new Parser(tokenizer.tokenizeInfix(), OperatorTable.standard())
+            : new Parser(tokenizer.tokenize());
+        Script expected = plain.parseScript("plain", pool);
+
+        Nodes nodes = new Nodes();
+        Parser shared = infix
+            ? new Parser(tokenizer.tokenizeInfix(), OperatorTable.standard())
+            : new Parser(tokenizer.tokenize());
+        SyntaxNode[] sequence = shared.shareNodes(nodes).parseScript("shared", pool).getSequence();
+
+        assert sequence.length == count;
+        for (int i = 0; i < count; i++) {
+          assert String.valueOf(expected.getSequence()[i]).equals(String.valueOf(sequence[i])) : sequence[i];
+          assert expected.getSequence()[i] != sequence[i];
+
+          if (sequence[i] instanceof FunctionDef) {
+            // Definitions aren't shared, but their bodies are.
+            assert i < UNITS.length || sequence[i] != sequence[i % UNITS.length];
+            assert ((FunctionDef) sequence[i]).getBody() == ((FunctionDef) sequence[i % UNITS.length]).getBody();
+          } else {
+            assert sequence[i] == sequence[i % UNITS.length] : i;
+          }
+        }
+        assert nodes.size() < 40 : nodes.size();
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public final void lazyBodiesShared() {
+    Nodes nodes = new Nodes();
+    SyntaxNode call = new Parser(new Tokenizer(UNITS[4]).tokenizeInfix(), OperatorTable.standard())
+        .shareNodes(nodes)
+        .parse();
+    FunctionDef def = (FunctionDef) new Parser(new Tokenizer(UNITS[3]).tokenizeInfix(), OperatorTable.standard())
+        .lazyBodies()
+        .shareNodes(nodes)
+        .parse();
+
+    SyntaxNode[] body = ((DoBlock) def.getBody()).getSequence();
+    assert call == body[0];
+  }
+}
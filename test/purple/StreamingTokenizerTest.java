@@ -0,0 +1,62 @@
+package purple;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that the streaming tokenizer lexes exactly what the in-memory
+ * one does, regardless of where the window boundaries fall.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public class StreamingTokenizerTest {
+  private static final String[] SCRIPTS = {
+      "",
+      "x + y",
+      "11.0.increment",
+      "\n\n\n(\n 1 \n+ \n2.4)\n\n",
+      "def thunk: \n 1.0",
+      "def +(String name, Int age):\n\n { \n  (58 + (2.flip)) \n }",
+      "class Person: {\n String name \n Int age \n} \n def +(a, b): a + b",
+      "puts (averyveryveryverylongidentifier + (33 - 2))\n",
+  };
+
+  @Test
+  public final void sameRawTokensAsInMemoryTokenizer() throws IOException {
+    for (String script : SCRIPTS) {
+      List<Token> expected = new Tokenizer(script).lex().toList();
+
+      // Tiny windows, so tokens and paren groups straddle refills.
+      for (int windowSize = 1; windowSize < 8; windowSize++) {
+        List<Token> actual = drain(new StreamingTokenizer(new StringReader(script), windowSize));
+        assert expected.equals(actual) : windowSize + ": " + actual;
+      }
+    }
+  }
+
+  @Test
+  public final void sameReducedTokensFromChannel() throws IOException {
+    for (String script : SCRIPTS) {
+      List<Token> expected = new Tokenizer(script).tokenize();
+      List<Token> actual = new StreamingTokenizer(
+          Channels.newChannel(new ByteArrayInputStream(script.getBytes("UTF-8"))))
+          .tokenize();
+
+      assert expected.equals(actual) : actual;
+    }
+  }
+
+  private static List<Token> drain(StreamingTokenizer tokenizer) throws IOException {
+    List<Token> tokens = new ArrayList<Token>();
+    for (Token token = tokenizer.next(); token != null; token = tokenizer.next()) {
+      tokens.add(token);
+    }
+    return tokens;
+  }
+}
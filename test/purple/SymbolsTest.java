@@ -0,0 +1,69 @@
+package purple;
+
+import org.junit.Test;
+import purple.syntax.Parser;
+import purple.syntax.model.FunctionCall;
+import purple.syntax.model.Variable;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public class SymbolsTest {
+
+  @Test
+  public final void regionsInternToTheSameSymbol() {
+    int flip = Symbols.intern("flip");
+
+    assert flip == Symbols.intern("x.flip(y)", 2, 4);
+    assert flip != Symbols.intern("x.flop(y)", 2, 4);
+    assert "flip".equals(Symbols.nameOf(flip));
+    assert Symbols.nameOf(flip) == Symbols.nameOf(Symbols.intern(new String("flip")));
+  }
+
+  @Test
+  public final void symbolsCarryThroughToModel() {
+    FunctionCall call = (FunctionCall) new Parser(new Tokenizer("a + a")
+        .tokenize()).parse();
+
+    assert call.getSymbol() == Symbols.intern("+");
+    assert ((Variable) call.getArgs()[0]).getSymbol() == ((Variable) call.getArgs()[1]).getSymbol();
+    assert ((Variable) call.getArgs()[0]).getName() == ((Variable) call.getArgs()[1]).getName();
+  }
+
+  @Test
+  public final void concurrentInterningAgrees() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<int[]>> results = new ArrayList<Future<int[]>>();
+      for (int t = 0; t < 8; t++) {
+        results.add(executor.submit(new Callable<int[]>() {
+          public int[] call() {
+            int[] ids = new int[1000];
+            for (int i = 0; i < ids.length; i++) {
+              ids[i] = Symbols.intern("concurrent_" + i);
+            }
+            return ids;
+          }
+        }));
+      }
+
+      int[] expected = results.get(0).get();
+      for (Future<int[]> result : results) {
+        int[] ids = result.get();
+        for (int i = 0; i < ids.length; i++) {
+          assert ids[i] == expected[i];
+          assert ("concurrent_" + i).equals(Symbols.nameOf(ids[i]));
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
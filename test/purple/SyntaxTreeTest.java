@@ -0,0 +1,169 @@
+package purple;
+
+import org.junit.Test;
+import purple.syntax.OperatorTable;
+import purple.syntax.Parser;
+import purple.syntax.SyntaxTree;
+
+/**
+ * Tests the flat, array backed syntax tree and its adapter to the model.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public class SyntaxTreeTest {
+  private static final String[] SCRIPTS = {
+      "11",
+      "puts(1 + 2)",
+      "11.+(1, 5.add(1))",
+      "a compare_to b + c",
+      "puts (1 + (33 - 2))",
+      "def thunk:\n    58 + 2.flip \n",
+      "def meth(String name, Int age, Phone num):\n    58 + 2.flip \n",
+      "def meth(arg):\n  puts(arg + 1)\n  arg - 2 \n",
+      "def +(String name, Int age): { \n  58 + 2.flip \n }",
+      "class Person: {\n String name \n Int age \n} \n",
+  };
+
+  @Test
+  public final void parsesToTheSameModel() {
+    for (String script : SCRIPTS) {
+      String expected = String.valueOf(new Parser(new Tokenizer(script).tokenize()).parse());
+
+      SyntaxTree tree = new SyntaxTree();
+      int node = new Parser(new Tokenizer(script).tokenizeInfix(), OperatorTable.standard())
+          .parse(tree);
+      assert expected.equals(String.valueOf(tree.toNode(node))) : script;
+
+      // And back again, through the adapter.
+      SyntaxTree copy = new SyntaxTree();
+      assert expected.equals(String.valueOf(copy.toNode(copy.add(tree.toNode(node))))) : script;
+      assert copy.size() == tree.size();
+    }
+  }
+
+  @Test
+  public final void literals() {
+    SyntaxTree tree = new SyntaxTree();
+    int node = parse(tree, "f(11, 2.5)");
+
+    assert tree.is(node, SyntaxTree.Kind.CALL);
+    assert "f".equals(Symbols.nameOf(tree.symbol(node)));
+    assert tree.childCount(node) == 2;
+
+    int first = tree.firstChild(node);
+    assert tree.is(first, SyntaxTree.Kind.INTEGER) && tree.intValue(first) == 11;
+
+    int second = tree.nextSibling(first);
+    assert tree.is(second, SyntaxTree.Kind.DECIMAL) && tree.decimalValue(second) == 2.5;
+    assert tree.nextSibling(second) == -1;
+  }
+
+  @Test
+  public final void definitions() {
+    SyntaxTree tree = new SyntaxTree();
+    int def = parse(tree, "def meth(String name, age): {\n  puts(name)\n  age\n}");
+
+    assert tree.is(def, SyntaxTree.Kind.FUNCTION_DEF);
+    assert "meth".equals(Symbols.nameOf(tree.symbol(def)));
+
+    int arg = tree.firstChild(def);
+    assert tree.is(arg, SyntaxTree.Kind.ARGUMENT);
+    assert "name".equals(Symbols.nameOf(tree.symbol(arg)));
+    assert "String".equals(Symbols.nameOf(tree.typeSymbol(arg)));
+
+    arg = tree.nextSibling(arg);
+    assert "age".equals(Symbols.nameOf(tree.symbol(arg)));
+    assert tree.typeSymbol(arg) == SyntaxTree.UNTYPED;
+
+    int body = tree.nextSibling(arg);
+    assert tree.is(body, SyntaxTree.Kind.DO_BLOCK);
+    assert tree.childCount(body) == 2;
+
+    // Children are always built before their parents.
+    assert body < def && arg < def;
+
+    int type = parse(tree, "class Person: {\n String name \n Int age \n}");
+    assert tree.is(type, SyntaxTree.Kind.CLASS_DEF);
+    assert tree.childCount(type) == 2;
+    int field = tree.firstChild(type);
+    assert "name".equals(Symbols.nameOf(tree.symbol(field)));
+    assert "String".equals(Symbols.nameOf(tree.typeSymbol(field)));
+  }
+
+  @Test
+  public final void cursorWalksInOrder() {
+    SyntaxTree tree = new SyntaxTree();
+    int node = parse(tree, "puts(a + b.flip, c)");
+
+    final StringBuilder walk = new StringBuilder();
+    SyntaxTree.Cursor cursor = tree.cursor();
+    cursor.seek(node);
+    cursor.walk(new SyntaxTree.Visitor() {
+      @Override
+      public boolean enter(SyntaxTree tree, int node) {
+        walk.append(Symbols.nameOf(tree.symbol(node))).append('(');
+        return !"flip".equals(Symbols.nameOf(tree.symbol(node)));
+      }
+
+      @Override
+      public void exit(SyntaxTree tree, int node) {
+        walk.append(')');
+      }
+    });
+
+    assert "puts(+(a()flip())c())".equals(walk.toString()) : walk;
+    assert cursor.node() == node && cursor.depth() == 0;
+
+    // And step by step.
+    assert cursor.firstChild() && cursor.is(SyntaxTree.Kind.CALL);
+    assert cursor.firstChild() && cursor.is(SyntaxTree.Kind.VARIABLE);
+    assert !cursor.firstChild();
+    assert cursor.nextSibling() && "flip".equals(Symbols.nameOf(cursor.symbol()));
+    assert !cursor.nextSibling();
+    assert cursor.depth() == 2;
+    assert cursor.parent() && cursor.nextSibling() && "c".equals(Symbols.nameOf(cursor.symbol()));
+    assert cursor.parent() && cursor.node() == node;
+    assert !cursor.parent() && !cursor.nextSibling();
+  }
+
+  @Test
+  public final void nestsMillionsDeepWithoutRecursion() {
+    int depth = 1 << 20;
+    StringBuilder script = new StringBuilder();
+    for (int i = 0; i < depth; i++) {
+      script.append("f(");
+    }
+    script.append('1');
+    for (int i = 0; i < depth; i++) {
+      script.append(')');
+    }
+
+    SyntaxTree tree = new SyntaxTree();
+    int node = parse(tree, script.toString());
+    assert tree.size() == depth + 1;
+
+    final int[] deepest = new int[1];
+    final SyntaxTree.Cursor cursor = tree.cursor();
+    cursor.seek(node);
+    cursor.walk(new SyntaxTree.Visitor() {
+      @Override
+      public boolean enter(SyntaxTree tree, int node) {
+        deepest[0] = Math.max(deepest[0], cursor.depth());
+        return true;
+      }
+
+      @Override
+      public void exit(SyntaxTree tree, int node) {
+      }
+    });
+    assert deepest[0] == depth;
+
+    SyntaxTree copy = new SyntaxTree();
+    copy.add(tree.toNode(node));
+    assert copy.size() == tree.size();
+  }
+
+  private static int parse(SyntaxTree tree, String script) {
+    return new Parser(new Tokenizer(script).tokenizeInfix(), OperatorTable.standard()).parse(tree);
+  }
+}
@@ -0,0 +1,195 @@
+package purple;
+
+import org.junit.Test;
+import purple.syntax.Parser;
+import purple.syntax.PurpleGrammarException;
+import purple.syntax.model.FunctionDef;
+import purple.syntax.model.SyntaxNode;
+
+import java.util.List;
+
+/**
+ * Tests that the lazily lexed and reduced token stream is the same as the
+ * one reduced up front, and that it is only produced as far as it's read.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public class TokenSourceTest {
+  private static final String[] SCRIPTS = {
+      "",
+      "11",
+      "x + y + z",
+      "11.0.increment\n\n\n",
+      "(11 +\n\n \n 4)",
+      "puts(1 + 2)",
+      "def thunk:\n    58 + 2.flip \n",
+      "def meth(String name, Int age, Phone num):\n    58 + 2.flip \n",
+      "class Person: {\n String name \n Int age \n} \n def +(a, b): a + b",
+      "def walk_dog(dog) {\n dog.enleash\n dog.walk\n}\nputs (1 + (33 - 2)) compare_to other_car\n",
+  };
+
+  @Test
+  public final void streamMatchesTokenize() {
+    for (String script : SCRIPTS) {
+      List<Token> expected = new Tokenizer(script).tokenize();
+      TokenSource tokens = new Tokenizer(script).stream();
+
+      for (int i = 0; i < expected.size(); i++) {
+        assert expected.get(i).equals(tokens.get(i)) : script;
+      }
+      assert !tokens.has(expected.size()) : script;
+    }
+  }
+
+  @Test
+  public final void streamParsesSameAsTokenize() {
+    for (String script : SCRIPTS) {
+
+      // Decimals don't print comparably.
+      if (script.contains(".0")) {
+        continue;
+      }
+      String expected = parse(new Parser(new Tokenizer(script).tokenize()));
+      String streamed = parse(new Parser(new Tokenizer(script).stream()));
+
+      assert expected.equals(streamed) : streamed;
+    }
+  }
+
+  private static String parse(Parser parser) {
+    try {
+      return String.valueOf(parser.parse());
+    } catch (PurpleGrammarException e) {
+      return e.getMessage();
+    }
+  }
+
+  @Test
+  public final void parsesFirstDefinitionWithoutReducingTheRest() {
+    StringBuilder script = new StringBuilder("def meth(arg):\n    58 + 2.flip \n\n");
+    for (int i = 0; i < 100; i++) {
+      script.append("x + ").append(i).append('\n');
+    }
+    script.append("puts ((((1\n");
+
+    // The whole script doesn't reduce.
+    boolean unbalanced = false;
+    try {
+      new Tokenizer(script.toString()).tokenize();
+    } catch (PurpleGrammarException e) {
+      unbalanced = true;
+    }
+    assert unbalanced;
+
+    // ..but its first definition parses fine, lazily.
+    SyntaxNode node = new Parser(new Tokenizer(script.toString()).stream()).parse();
+    assert node instanceof FunctionDef;
+    assert "meth".equals(((FunctionDef) node).getName());
+  }
+
+  @Test
+  public final void balancersMatchedAtReduction() {
+    List<Token> tokens = new Tokenizer("def meth(arg):\n puts(1 + (2 - x)) \n").tokenize();
+
+    for (int i = 0; i < tokens.size(); i++) {
+      Token token = tokens.get(i);
+      if (token.is(TokenKind.LPAREN) || token.is(TokenKind.LBRACE)) {
+        int match = token.getBalancingTokenIndex();
+        TokenKind closer = token.is(TokenKind.LPAREN) ? TokenKind.RPAREN : TokenKind.RBRACE;
+
+        assert match > i : token;
+        assert tokens.get(match).is(closer) : tokens.get(match);
+        assert tokens.get(match).getBalancingTokenIndex() == i;
+      }
+    }
+  }
+
+  @Test
+  public final void listTokensAreLeftAlone() {
+    List<Token> tokens = new Tokenizer("puts(1)\nputs(2, (3))\n").tokenize();
+    int[] before = new int[tokens.size()];
+    for (int i = 0; i < before.length; i++) {
+      before[i] = tokens.get(i).getBalancingTokenIndex();
+    }
+
+    // Sources over views of the same tokens match up balancers relative
+    // to their own view, without touching the tokens.
+    for (int from = 0; from < tokens.size(); from++) {
+      TokenSource source = TokenSource.of(tokens.subList(from, tokens.size()));
+      for (int i = 0; i < source.size(); i++) {
+        int match = source.balancingIndex(i);
+        assert match < 0 || before[from + i] == from + match : from + ": " + i;
+      }
+    }
+    for (int i = 0; i < before.length; i++) {
+      assert tokens.get(i).getBalancingTokenIndex() == before[i] : tokens.get(i);
+    }
+  }
+
+  @Test
+  public final void nestedParsingScalesLinearly() {
+    for (String shape : new String[] { "%s", "def meth(arg):\n %s \n" }) {
+      int shallow = readsToParse(shape, 500);
+      int deep = readsToParse(shape, 2000);
+
+      // Four times the nesting should be about four times the work, not 16.
+      assert deep < 5 * shallow : shallow + " vs " + deep;
+    }
+  }
+
+  private static int readsToParse(String shape, int depth) {
+    StringBuilder nested = new StringBuilder();
+    for (int i = 0; i < depth; i++) {
+      nested.append("puts(");
+    }
+    nested.append('1');
+    for (int i = 0; i < depth; i++) {
+      nested.append(')');
+    }
+
+    CountingSource tokens = new CountingSource(
+        new Tokenizer(String.format(shape, nested)).tokenize());
+    new Parser(tokens).parse();
+    return tokens.reads;
+  }
+
+  @Test
+  public final void discardedTokensAreLetGo() {
+    TokenSource tokens = new Tokenizer("puts(1 + 2)\nx.y(a, (b))\nz\n").stream();
+    assert tokens.has(8);
+    assert tokens.retained() > 8;
+
+    // Up to the second line.
+    int second = 0;
+    while (!tokens.get(second).isEol()) {
+      second++;
+    }
+    int held = tokens.retained();
+    tokens.discard(++second);
+    assert tokens.retained() == held - second;
+
+    assert "x".equals(tokens.get(second).getName());
+    int close = tokens.balancingIndex(second + 3);
+    assert tokens.get(close).is(TokenKind.RPAREN);
+    assert tokens.balancingIndex(close) == second + 3;
+    assert tokens.get(close + 1).isEol();
+
+    tokens.discard(tokens.size());
+    assert tokens.retained() == 0;
+    assert !tokens.has(tokens.size());
+  }
+
+  private static class CountingSource extends TokenSource {
+    private int reads;
+
+    private CountingSource(List<Token> tokens) {
+      super(tokens);
+    }
+
+    @Override
+    public boolean has(int index) {
+      reads++;
+      return super.has(index);
+    }
+  }
+}
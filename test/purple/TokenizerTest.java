@@ -4,6 +4,8 @@ import org.junit.Test;
 
 import java.util.List;
 import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * @author Dhanji R. Prasanna (dhanji@gmail com)
@@ -196,4 +198,87 @@ public class TokenizerTest {
 
     assert expected.equals(list) : list;
   }
+
+  @Test
+  public final void parallelLexMatchesSequential() {
+    StringBuilder script = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      script.append("def +(String name, Int age):\n\n { \n  (58 + (2.flip)) \n }\n")
+          .append("puts (1 +\n (33 - 2))\n\n")
+          .append("x").append(i).append(" + 1.0\n");
+    }
+    Tokenizer tokenizer = new Tokenizer(script.toString());
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      List<Token> expected = tokenizer.lex().toList();
+      for (int chunkSize : new int[] { 1, 7, 64, 1000, 1 << 20 }) {
+        assert expected.equals(tokenizer.lex(pool, chunkSize).toList()) : chunkSize;
+      }
+      assert tokenizer.tokenize().equals(tokenizer.tokenize(pool));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public final void relexMatchesFullLex() {
+    String script = "def +(String name, Int age):\n\n { \n  (58 + (2.flip)) \n }\n"
+        + "puts (1 +\n (33 - 2))\n\nx1 + 1.0\nclass Person: {\n String name \n}\n";
+    String[] insertions = { "", "x", "1", " ", "\n", "(", ")", ".", "abc def", "(\n", ")\n)" };
+
+    Random random = new Random(11);
+    for (int run = 0; run < 2000; run++) {
+      int offset = random.nextInt(script.length() + 1);
+      int removed = random.nextInt(Math.min(4, script.length() - offset) + 1);
+      String inserted = insertions[random.nextInt(insertions.length)];
+
+      TokenEdit edit = Tokenizer.relex(new Tokenizer(script).lex(), offset, removed, inserted);
+      String edited = script.substring(0, offset) + inserted + script.substring(offset + removed);
+      TokenBuffer expected = new Tokenizer(edited).lex();
+
+      assert edited.equals(edit.getSource());
+      TokenBuffer tokens = edit.getTokens();
+      assert expected.size() == tokens.size() : edited;
+      for (int i = 0; i < expected.size(); i++) {
+        assert expected.get(i).equals(tokens.get(i)) : edited;
+        assert expected.start(i) == tokens.start(i) : edited;
+      }
+      assert edit.getNewTo() - edit.getOldTo() == tokens.size() - new Tokenizer(script).lex().size();
+
+      // Keep editing the edited script, now and then.
+      if (edit.getSource().length() < 1000 && random.nextBoolean()) {
+        script = edit.getSource();
+      }
+    }
+  }
+
+  @Test
+  public final void relexOnlyTouchesTokensAroundEdit() {
+    StringBuilder script = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      script.append("puts (x").append(i).append(" + 1.0)\n");
+    }
+
+    TokenBuffer tokens = new Tokenizer(script.toString()).lex();
+    int offset = script.indexOf("x50") + 1;
+    TokenEdit edit = Tokenizer.relex(tokens, offset, 2, "500 + y");
+
+    assert edit.getNewTo() - edit.getFrom() == 3 : edit.getNewTo() - edit.getFrom();
+    assert edit.getOldTo() - edit.getFrom() == 1;
+    assert edit.tokenize().equals(new Tokenizer(edit.getSource()).tokenize());
+  }
+
+  @Test
+  public final void addingTokensRebalances() {
+    TokenBuffer tokens = new TokenBuffer("(x)", 8);
+    tokens.add(TokenKind.LPAREN, 0, 1);
+    tokens.add(TokenKind.IDENT, 1, 1);
+    assert tokens.balancingIndex(0) == -1;
+
+    tokens.add(TokenKind.RPAREN, 2, 1);
+    assert tokens.balancingIndex(0) == 2;
+    assert tokens.balancingIndex(2) == 0;
+    assert tokens.get(1).getBalancingTokenIndex() == -1;
+  }
 }
@@ -0,0 +1,145 @@
+package purple;
+
+import org.junit.Test;
+import purple.syntax.CompiledScript;
+import purple.syntax.OperatorTable;
+import purple.syntax.Parser;
+import purple.syntax.model.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Tests resolving field and argument types from the global type pool.
+ *
+ * @author Dhanji R. Prasanna (dhanji@gmail com)
+ */
+public class TypesTest {
+  private static final String SCRIPT =
+      "def greet(String name, Int times, other): {\n  puts(name)\n}\n"
+      + "class Person: {\n String name \n Int age \n Person parent \n}\n";
+
+  @Test
+  public final void fieldsAndArgumentsShareTypes() {
+    for (boolean infix : new boolean[] { false, true }) {
+      Script script = parse(SCRIPT, infix);
+      FunctionDef def = (FunctionDef) script.getSequence()[0];
+      ClassDef person = (ClassDef) script.getSequence()[1];
+
+      Argument[] args = def.getArgs();
+      assert "String".equals(args[0].getType());
+      assert args[0].getTypeDef() == Types.of("String");
+      assert args[1].getTypeDef() == Types.of("Int");
+      assert args[0].getTypeDef() != args[1].getTypeDef();
+
+      List<FieldDef> fields = person.getFields();
+      assert fields.get(0).getType() == args[0].getTypeDef();
+      assert fields.get(1).getType() == args[1].getTypeDef();
+      assert fields.get(2).getType() == Types.of("Person");
+
+      // The definition is not the pooled type, which has no fields.
+      assert person != Types.of("Person");
+      assert null == Types.of("Person").getFields();
+
+      // Untyped arguments are of no pooled type, not even one named "unknown".
+      assert args[2].getTypeDef() == Types.UNKNOWN;
+      assert Types.UNKNOWN != Types.of("unknown");
+      assert "unknown".equals(args[2].getType());
+
+      // The same across compilations, including compiled ones.
+      Script again = CompiledScript.read(CompiledScript.write(parse(SCRIPT, infix))).toScript("again");
+      assert ((FunctionDef) again.getSequence()[0]).getArgs()[0].getTypeDef() == args[0].getTypeDef();
+      assert ((ClassDef) again.getSequence()[1]).getFields().get(1).getType() == fields.get(1).getType();
+      assert ((FunctionDef) again.getSequence()[0]).getArgs()[2].getTypeDef() == Types.UNKNOWN;
+    }
+
+    assert new Argument("a", (String) null).getTypeDef() == Types.UNKNOWN;
+    assert new Argument("a", "unknown").getTypeDef() == Types.UNKNOWN;
+    assert new Argument(Symbols.intern("a"), (ClassDef) null).getTypeDef() == Types.UNKNOWN;
+    assert new Argument("a", "Phone").getTypeDef() == Types.of(Symbols.intern("Phone"));
+    assert "ClassDef{name='Phone', fields=null}".equals(Types.of("Phone").toString());
+  }
+
+  @Test
+  public final void definitionsAreNeverChanged() {
+    String name = "Defined" + System.nanoTime();
+    ClassDef first = (ClassDef) parse("class " + name + ": {\n String name \n}\n", false)
+        .getSequence()[0];
+    assert first == Types.definitionOf(name);
+
+    // The same definition again is shared, a different one is not.
+    ClassDef same = (ClassDef) parse("class " + name + ": {\n String name \n}\n", true)
+        .getSequence()[0];
+    ClassDef other = (ClassDef) parse("class " + name + ": {\n Int age \n Int size \n}\n", false)
+        .getSequence()[0];
+    assert same == first;
+    assert other != first;
+    assert 2 == other.getFields().size();
+    assert "[FieldDef{name='name', type=String}]".equals(first.getFields().toString());
+    assert first == Types.definitionOf(name);
+
+    Script compiled = CompiledScript.read(CompiledScript.write(new Script("s", new SyntaxNode[] { other })))
+        .toScript("s");
+    assert compiled.getSequence()[0] != first;
+    assert "[FieldDef{name='name', type=String}]".equals(first.getFields().toString());
+
+    try {
+      first.getFields().clear();
+      assert false;
+    } catch (UnsupportedOperationException expected) {
+    }
+    assert null == Types.definitionOf("Undefined" + System.nanoTime());
+  }
+
+  @Test
+  public final void resolvesOnceAcrossThreads() throws Exception {
+    final int threads = 4;
+    final String prefix = "Concurrent" + System.nanoTime() + "_";
+    int before = Types.size();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<ClassDef[]>> results = new ArrayList<Future<ClassDef[]>>();
+      for (int t = 0; t < threads; t++) {
+        results.add(executor.submit(new Callable<ClassDef[]>() {
+          @Override
+          public ClassDef[] call() {
+            ClassDef[] types = new ClassDef[5000];
+            for (int i = 0; i < types.length; i++) {
+              types[i] = Types.of(prefix + i);
+            }
+            return types;
+          }
+        }));
+      }
+
+      ClassDef[] first = results.get(0).get();
+      for (Future<ClassDef[]> result : results) {
+        ClassDef[] types = result.get();
+        for (int i = 0; i < types.length; i++) {
+          assert types[i] == first[i];
+          assert (prefix + i).equals(types[i].getName());
+        }
+      }
+      assert Types.size() - before == first.length : Types.size() - before;
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static Script parse(String script, boolean infix) {
+    Tokenizer tokenizer = new Tokenizer(script);
+    ForkJoinPool pool = new ForkJoinPool(1);
+    try {
+      return (infix
+          ? new Parser(tokenizer.tokenizeInfix(), OperatorTable.standard())
+          : new Parser(tokenizer.tokenize())).parseScript("script", pool);
+    } finally {
+      pool.shutdown();
+    }
+  }
+}